@@ -0,0 +1,403 @@
+/**
+ * A computer player that tries every placement of the current piece and keeps
+ * the one leaving the best grid.
+ * 
+ * Placements are tried on a copy of the grid bitboard (one int per row): a
+ * piece in a given orientation is one bitmask per row it covers, so testing,
+ * dropping and locking a piece are a few bit operations per row. A placement
+ * is an orientation the piece can turn to where it is, and a column it can
+ * slide to from there, as played by Game.place.
+ * 
+ * The grid left by a placement is scored as a weighted sum of the rows it
+ * removes, the sum of the column heights, the number of holes (empty squares
+ * below an occupied one) and the bumpiness (sum of the height differences of
+ * neighboring columns).
+ * 
+ * With a lookahead, the policy also places the next pieces of the preview
+ * after each placement of the current piece, and keeps the placement leading
+ * to the best grid after all of them. Different orders of placements often
+ * lead to the same grid, so the best score reachable from a grid with the
+ * pieces still to come is cached in a transposition table, keyed by the
+ * Zobrist hash of the grid and of those pieces. The table is kept from one
+ * piece to the next: the search for the next piece starts on grids already
+ * scored.
+ * 
+ * @author MO-Productions
+ */
+public class AIPolicy implements PlacementPolicy {
+	// default weights, tuned by Yiyuan Lee for this set of features
+	public static final double HEIGHT_WEIGHT = -0.510066;
+
+	public static final double LINES_WEIGHT = 0.760666;
+
+	public static final double HOLES_WEIGHT = -0.35663;
+
+	public static final double BUMPINESS_WEIGHT = -0.184483;
+
+	private double heightWeight, linesWeight, holesWeight, bumpinessWeight;
+
+	private int lookahead; // number of preview pieces placed after the current
+
+	private TranspositionTable table; // best scores of the grids searched
+
+	private int[] rows; // the grid before the placement
+
+	// boards[d]: the grid after the placement of the d-th piece searched
+	private int[][] boards;
+
+	private int[] types; // types[d]: type of the d-th piece searched
+
+	private long[] pieceKeys; // pieceKeys[d]: hash of the pieces from d on
+
+	private int[] heights; // height of each column of the grid scored
+
+	private int bestOrientation, bestColumn; // best placement found
+
+	private long evaluations; // number of grids scored
+
+	// the orientations of each type of piece as bitmasks
+	private Orientation[][] byType;
+
+	/**
+	 * Creates a policy with the default weights, placing the current piece
+	 * only
+	 */
+	public AIPolicy() {
+		this(0);
+	}
+
+	/**
+	 * Creates a policy with the default weights
+	 * 
+	 * @param lookahead
+	 *            the number of preview pieces to place after the current one
+	 */
+	public AIPolicy(int lookahead) {
+		this(HEIGHT_WEIGHT, LINES_WEIGHT, HOLES_WEIGHT, BUMPINESS_WEIGHT,
+				lookahead, TranspositionTable.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a policy with the given weights, placing the current piece only
+	 * 
+	 * @param heightWeight
+	 *            the weight of the sum of the column heights
+	 * @param linesWeight
+	 *            the weight of the number of rows removed
+	 * @param holesWeight
+	 *            the weight of the number of holes
+	 * @param bumpinessWeight
+	 *            the weight of the bumpiness
+	 */
+	public AIPolicy(double heightWeight, double linesWeight,
+			double holesWeight, double bumpinessWeight) {
+		this(heightWeight, linesWeight, holesWeight, bumpinessWeight, 0, 2);
+	}
+
+	/**
+	 * Creates a policy
+	 * 
+	 * @param heightWeight
+	 *            the weight of the sum of the column heights
+	 * @param linesWeight
+	 *            the weight of the number of rows removed
+	 * @param holesWeight
+	 *            the weight of the number of holes
+	 * @param bumpinessWeight
+	 *            the weight of the bumpiness
+	 * @param lookahead
+	 *            the number of preview pieces to place after the current one
+	 * @param capacity
+	 *            the number of entries of the transposition table
+	 * @throws IllegalArgumentException
+	 *             if lookahead < 0 || lookahead >= Zobrist.MAX_PIECES
+	 */
+	public AIPolicy(double heightWeight, double linesWeight,
+			double holesWeight, double bumpinessWeight, int lookahead,
+			int capacity) {
+		if (lookahead < 0 || lookahead >= Zobrist.MAX_PIECES)
+			throw new IllegalArgumentException("Invalid lookahead = "
+					+ lookahead);
+		this.heightWeight = heightWeight;
+		this.linesWeight = linesWeight;
+		this.holesWeight = holesWeight;
+		this.bumpinessWeight = bumpinessWeight;
+		this.lookahead = lookahead;
+		table = new TranspositionTable(capacity);
+		rows = new int[Grid.HEIGHT];
+		boards = new int[lookahead + 1][Grid.HEIGHT];
+		types = new int[lookahead + 1];
+		pieceKeys = new long[lookahead + 2];
+		heights = new int[Grid.WIDTH];
+
+		// the orientations of each type, read from a piece of that type
+		Grid empty = new Grid();
+		byType = new Orientation[PieceGenerator.TYPES][];
+		for (int type = 0; type < PieceGenerator.TYPES; type++) {
+			byType[type] = orientationsOf(Game.createPiece(type,
+					Game.SPAWN_ROW, Game.SPAWN_COL, empty));
+		}
+	}
+
+	public void place(Game game) {
+		AbstractPiece piece = game.getPiece();
+		Grid grid = game.getGrid();
+		grid.copyRows(rows);
+
+		// the preview pieces searched, and the hash of each tail of them
+		PieceGenerator generator = game.getGenerator();
+		int depth = Math.min(lookahead, generator.getPreviewSize());
+		for (int d = 1; d <= depth; d++) {
+			types[d] = generator.peek(d - 1);
+		}
+		pieceKeys[depth + 1] = 0;
+		for (int d = depth; d >= 1; d--) {
+			long key = 0;
+			for (int i = d; i <= depth; i++) {
+				key ^= Zobrist.pieceKey(i - d, types[i]);
+			}
+			pieceKeys[d] = key;
+		}
+
+		bestOrientation = piece.getOrientation();
+		bestColumn = piece.getLeftColumn();
+		best(0, depth, rows, grid.getHash(), orientationsOf(piece),
+				piece.getRow(), piece.getCol(), piece.getOrientation());
+		game.place(bestOrientation, bestColumn);
+	}
+
+	/**
+	 * Returns the number of grids scored by this policy so far
+	 */
+	public long getEvaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * Returns the transposition table of this policy
+	 */
+	public TranspositionTable getTable() {
+		return table;
+	}
+
+	/*
+	 * Returns the best score of placing the d-th piece (in the given
+	 * orientations, centered at (row, col) in orientation first) on the grid,
+	 * then the pieces after it up to the depth-th. At d == 0, also records the
+	 * best placement.
+	 */
+	private double best(int d, int depth, int[] grid, long hash,
+			Orientation[] shapes, int row, int col, int first) {
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (int turns = 0; turns < AbstractPiece.ORIENTATIONS; turns++) {
+			int o = (first + turns) % AbstractPiece.ORIENTATIONS;
+			Orientation s = shapes[o];
+			int top = row + s.top;
+			int left = col + s.left;
+			// the piece stops turning at the first orientation that is blocked
+			if (!fits(grid, s, top, left)) {
+				break;
+			}
+			// slide left, then right, until blocked
+			for (int c = left; fits(grid, s, top, c); c--) {
+				double score = score(d, depth, grid, hash, s, top, c);
+				if (score > bestScore) {
+					bestScore = score;
+					if (d == 0) {
+						bestOrientation = o;
+						bestColumn = c;
+					}
+				}
+			}
+			for (int c = left + 1; fits(grid, s, top, c); c++) {
+				double score = score(d, depth, grid, hash, s, top, c);
+				if (score > bestScore) {
+					bestScore = score;
+					if (d == 0) {
+						bestOrientation = o;
+						bestColumn = c;
+					}
+				}
+			}
+		}
+		return bestScore;
+	}
+
+	/*
+	 * Drops the d-th piece from (top, left) on a copy of the grid and returns
+	 * the score of the rows it removes plus the best score reachable from the
+	 * grid it leaves
+	 */
+	private double score(int d, int depth, int[] grid, long hash,
+			Orientation s, int top, int left) {
+		while (fits(grid, s, top + 1, left)) {
+			top++;
+		}
+		int[] board = boards[d];
+		System.arraycopy(grid, 0, board, 0, Grid.HEIGHT);
+		int lines = lock(board, s, top, left);
+		if (lines == 0) {
+			for (int k = 0; k < s.height; k++) {
+				hash ^= Zobrist.hashRow(top + k, s.masks[k] << left);
+			}
+		} else {
+			hash = Zobrist.hash(board);
+		}
+		return linesWeight * lines + value(d + 1, depth, board, hash);
+	}
+
+	/*
+	 * Returns the best score reachable from a grid when the pieces from the
+	 * d-th to the depth-th are still to place
+	 */
+	private double value(int d, int depth, int[] board, long hash) {
+		if (d > depth) {
+			return evaluate(board, 0);
+		}
+		long key = hash ^ pieceKeys[d];
+		double value = table.get(key);
+		if (Double.isNaN(value)) {
+			value = best(d, depth, board, hash, byType[types[d]],
+					Game.SPAWN_ROW, Game.SPAWN_COL, 0);
+			table.put(key, depth - d, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Scores a grid: the higher the better
+	 * 
+	 * @param board
+	 *            the occupancy bitmask of each row of the grid, top row first
+	 * @param lines
+	 *            the number of rows removed to reach this grid
+	 */
+	public double evaluate(int[] board, int lines) {
+		evaluations++;
+		int seen = 0; // columns with an occupied square above this row
+		int holes = 0;
+		for (int r = 0; r < Grid.HEIGHT; r++) {
+			int row = board[r];
+			// columns whose highest occupied square is on this row
+			int top = row & ~seen;
+			while (top != 0) {
+				heights[Integer.numberOfTrailingZeros(top)] = Grid.HEIGHT - r;
+				top &= top - 1;
+			}
+			holes += Integer.bitCount(seen & ~row);
+			seen |= row;
+		}
+
+		int aggregate = 0, bumpiness = 0;
+		for (int c = 0; c < Grid.WIDTH; c++) {
+			if ((seen & (1 << c)) == 0) {
+				heights[c] = 0;
+			}
+			aggregate += heights[c];
+			if (c > 0) {
+				bumpiness += Math.abs(heights[c] - heights[c - 1]);
+			}
+		}
+		return heightWeight * aggregate + linesWeight * lines + holesWeight
+				* holes + bumpinessWeight * bumpiness;
+	}
+
+	/*
+	 * Returns true if the piece fits on the grid with its top row at top and
+	 * its leftmost column at left
+	 */
+	static boolean fits(int[] rows, Orientation s, int top, int left) {
+		if (top < 0 || left < 0 || top + s.height > Grid.HEIGHT
+				|| left + s.width > Grid.WIDTH) {
+			return false;
+		}
+		for (int k = 0; k < s.height; k++) {
+			if ((rows[top + k] & (s.masks[k] << left)) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Adds the piece to the grid and removes the rows it fills
+	 * 
+	 * @return the number of rows removed
+	 */
+	static int lock(int[] rows, Orientation s, int top, int left) {
+		int full = 0;
+		for (int k = 0; k < s.height; k++) {
+			rows[top + k] |= s.masks[k] << left;
+			if (rows[top + k] == Grid.FULL_ROW) {
+				full++;
+			}
+		}
+		if (full == 0) {
+			return 0;
+		}
+		// move the other rows down over the full ones, bottom up
+		int cleared = 0;
+		for (int r = top + s.height - 1; r >= 0; r--) {
+			if (r >= top && rows[r] == Grid.FULL_ROW) {
+				cleared++;
+			} else {
+				rows[r + cleared] = rows[r];
+			}
+		}
+		for (int r = 0; r < cleared; r++) {
+			rows[r] = 0;
+		}
+		return cleared;
+	}
+
+	/*
+	 * Returns the orientations of the piece as bitmasks: the ones of its type
+	 * if it is one of the usual pieces, new ones otherwise
+	 */
+	private Orientation[] orientationsOf(AbstractPiece piece) {
+		int[] offsets = piece.getOffsets(0);
+		for (int type = 0; type < PieceGenerator.TYPES; type++) {
+			// byType is being filled while the policy is created
+			if (byType[type] != null && byType[type][0].offsets == offsets) {
+				return byType[type];
+			}
+		}
+		Orientation[] result = new Orientation[AbstractPiece.ORIENTATIONS];
+		for (int o = 0; o < AbstractPiece.ORIENTATIONS; o++) {
+			result[o] = new Orientation(piece.getOffsets(o));
+		}
+		return result;
+	}
+
+	/*
+	 * A piece in one orientation, as the bitmask of each row it covers
+	 */
+	static class Orientation {
+		int[] offsets; // the offsets from the center it was built from
+
+		int top, left; // offsets of the top row and left column from the center
+
+		int height, width; // number of rows and columns covered
+
+		int[] masks; // masks[k]: columns covered on row top + k, from left
+
+		Orientation(int[] offsets) {
+			this.offsets = offsets;
+			top = Integer.MAX_VALUE;
+			left = Integer.MAX_VALUE;
+			int bottom = Integer.MIN_VALUE, right = Integer.MIN_VALUE;
+			for (int i = 0; i < offsets.length; i += 2) {
+				top = Math.min(top, offsets[i]);
+				bottom = Math.max(bottom, offsets[i]);
+				left = Math.min(left, offsets[i + 1]);
+				right = Math.max(right, offsets[i + 1]);
+			}
+			height = bottom - top + 1;
+			width = right - left + 1;
+			masks = new int[height];
+			for (int i = 0; i < offsets.length; i += 2) {
+				masks[offsets[i] - top] |= 1 << (offsets[i + 1] - left);
+			}
+		}
+	}
+}
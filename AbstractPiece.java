@@ -13,6 +13,15 @@ public abstract class AbstractPiece {
 	// number of squares in one Tetris game piece
 	private static final int PIECE_COUNT = 4;
 
+	// number of orientations of a piece, one for each quarter turn
+	public static final int ORIENTATIONS = 4;
+
+	// rotations[o] holds the (row, col) offsets of each square from the center
+	// square[1] when the piece is in orientation o, as row0, col0, row1, ...
+	protected int[][] rotations;
+
+	protected int orientation; // index of the current orientation
+
 	/**
 	 * Creates an L-Shape piece. See class description for actual location of r
 	 * and c
@@ -45,8 +54,11 @@ public abstract class AbstractPiece {
 	 */
 	public void move(Direction direction) {
 		if (canMove(direction)) {
+			// canMove tested every square: place them without testing again
+			int dRow = rowStep(direction), dCol = colStep(direction);
 			for (int i = 0; i < PIECE_COUNT; i++)
-				square[i].move(direction);
+				square[i].setLocation(square[i].getRow() + dRow,
+						square[i].getCol() + dCol);
 		}
 		// if we couldn't move, see if because we're at the bottom
 		else if (direction == Direction.DOWN) {
@@ -54,6 +66,74 @@ public abstract class AbstractPiece {
 		}
 	}
 
+	/**
+	 * Returns how many rows this piece can fall before it lands.
+	 * 
+	 * When the piece is above the highest occupied square of each of its
+	 * columns, nothing is in the way down to those squares, so the distance
+	 * comes straight from the column tops kept by the grid. Only a piece that
+	 * slid under an overhang is moved down row by row.
+	 */
+	public int getDropDistance() {
+		if (!ableToMove)
+			return 0;
+
+		int distance = Grid.HEIGHT;
+		for (int i = 0; i < PIECE_COUNT; i++) {
+			int row = square[i].getRow();
+			int top = grid.getColumnTop(square[i].getCol());
+			if (row >= top) {
+				return stepDistance();
+			}
+			distance = Math.min(distance, top - 1 - row);
+		}
+		return distance;
+	}
+
+	/*
+	 * Returns how many rows this piece can fall, testing one row at a time
+	 */
+	private int stepDistance() {
+		int distance = 0;
+		while (fits(distance + 1)) {
+			distance++;
+		}
+		return distance;
+	}
+
+	/*
+	 * Returns true if every square of this piece would be on a free spot
+	 * after falling the given number of rows
+	 */
+	private boolean fits(int distance) {
+		for (int i = 0; i < PIECE_COUNT; i++) {
+			if (!grid.isFree(square[i].getRow() + distance,
+					Grid.mask(square[i].getCol()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the row the center square of this piece lands on if dropped,
+	 * e.g. to show where the piece will land
+	 */
+	public int getLandingRow() {
+		return getRow() + getDropDistance();
+	}
+
+	/**
+	 * Moves the piece straight down as far as it can go
+	 */
+	public void drop() {
+		int distance = getDropDistance();
+		for (int i = 0; i < PIECE_COUNT; i++) {
+			square[i].setLocation(square[i].getRow() + distance,
+					square[i].getCol());
+		}
+	}
+
 	/**
 	 * Returns the (row,col) grid coordinates occupied by this Piece
 	 * 
@@ -67,6 +147,134 @@ public abstract class AbstractPiece {
 		return points;
 	}
 
+	/**
+	 * Copies the (row,col) grid coordinates occupied by this Piece into the
+	 * given array, as row0, col0, row1, col1, ... Unlike getLocations, this
+	 * allocates nothing.
+	 * 
+	 * @param dest
+	 *            an array of at least 2 * PIECE_COUNT ints
+	 */
+	public void getLocations(int[] dest) {
+		for (int i = 0; i < PIECE_COUNT; i++) {
+			dest[2 * i] = square[i].getRow();
+			dest[2 * i + 1] = square[i].getCol();
+		}
+	}
+
+	/**
+	 * Returns the number of squares of this piece
+	 */
+	public int getSquareCount() {
+		return PIECE_COUNT;
+	}
+
+	/**
+	 * Returns the row of the i-th square of this piece
+	 * 
+	 * @param i
+	 *            the index of the square, from 0 to getSquareCount() - 1
+	 */
+	public int getSquareRow(int i) {
+		return square[i].getRow();
+	}
+
+	/**
+	 * Returns the column of the i-th square of this piece
+	 * 
+	 * @param i
+	 *            the index of the square, from 0 to getSquareCount() - 1
+	 */
+	public int getSquareCol(int i) {
+		return square[i].getCol();
+	}
+
+	/**
+	 * Returns true if a square of this piece is on an occupied spot of the
+	 * grid, e.g. when it appeared over the squares already there
+	 */
+	public boolean isBlocked() {
+		for (int i = 0; i < PIECE_COUNT; i++) {
+			if (grid.isSet(square[i].getRow(), square[i].getCol())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Puts the piece back as it was created, centered at (r, c), so that a
+	 * game can reuse one piece of each shape instead of creating a new one
+	 * for every spawn. The location is not checked.
+	 * 
+	 * @param r
+	 *            row location for this piece
+	 * @param c
+	 *            column location for this piece
+	 */
+	public void reset(int r, int c) {
+		reset(r, c, 0);
+	}
+
+	/**
+	 * Puts the piece centered at (r, c), turned to the given orientation. The
+	 * location is not checked.
+	 * 
+	 * @param r
+	 *            row location for the center of this piece
+	 * @param c
+	 *            column location for the center of this piece
+	 * @param orientation
+	 *            the orientation, from 0 to ORIENTATIONS - 1
+	 */
+	public void reset(int r, int c, int orientation) {
+		ableToMove = true;
+		this.orientation = orientation;
+		int[] offsets = rotations[orientation];
+		for (int i = 0; i < PIECE_COUNT; i++) {
+			square[i].setLocation(r + offsets[2 * i], c + offsets[2 * i + 1]);
+		}
+	}
+
+	/**
+	 * Returns the row of the center square of this piece, about which it
+	 * rotates
+	 */
+	public int getRow() {
+		return square[1].getRow();
+	}
+
+	/**
+	 * Returns the column of the center square of this piece
+	 */
+	public int getCol() {
+		return square[1].getCol();
+	}
+
+	/**
+	 * Returns the (row, col) offsets of the squares of this piece from its
+	 * center square in the given orientation, as row0, col0, row1, col1, ...
+	 * The array is shared by all the pieces of the same shape: do not modify
+	 * it.
+	 * 
+	 * @param orientation
+	 *            the orientation, from 0 to ORIENTATIONS - 1
+	 */
+	public int[] getOffsets(int orientation) {
+		return rotations[orientation];
+	}
+
+	/**
+	 * Returns the column of the leftmost square of this piece
+	 */
+	public int getLeftColumn() {
+		int left = square[0].getCol();
+		for (int i = 1; i < PIECE_COUNT; i++) {
+			left = Math.min(left, square[i].getCol());
+		}
+		return left;
+	}
+
 	/**
 	 * Return the color of this piece
 	 */
@@ -83,37 +291,117 @@ public abstract class AbstractPiece {
 		if (!ableToMove)
 			return false;
 
-		// Each square must be able to move in that direction
-		boolean answer = true;
-		for (int i = 0; i < PIECE_COUNT; i++) {
-			answer = answer && square[i].canMove(direction);
+		int dRow = rowStep(direction), dCol = colStep(direction);
+		if (dRow == 0 && dCol == 0) {
+			return false;
 		}
 
-		return answer;
+		// Each square must land on a free spot of the grid: one bit test on
+		// the occupancy of the destination row
+		for (int i = 0; i < PIECE_COUNT; i++) {
+			int row = square[i].getRow() + dRow;
+			int col = square[i].getCol() + dCol;
+			if (!grid.isFree(row, Grid.mask(col))) {
+				return false;
+			}
+		}
+		return true;
 	}
 	
 	
 	
+	/**
+	 * Returns true if the piece can turn to its next orientation: every square
+	 * of the next orientation must be on a free spot of the grid
+	 */
 	public boolean canRotate() {
-		boolean answer = true;
-		for (int i = 0; i < PIECE_COUNT; i++){
-			answer = answer && square[i].canRotate(square[1]);
+		if (!ableToMove)
+			return false;
+
+		int[] next = rotations[(orientation + 1) % ORIENTATIONS];
+		int row = square[1].getRow();
+		int col = square[1].getCol();
+		for (int i = 0; i < PIECE_COUNT; i++) {
+			if (!grid.isFree(row + next[2 * i], Grid.mask(col + next[2 * i + 1]))) {
+				return false;
+			}
 		}
-		return answer;
+		return true;
 	}
-	
-	
-	
-	
-	
+
+	/*
+	 * Returns the change of row of a move in the given direction
+	 */
+	private static int rowStep(Direction direction) {
+		switch (direction) {
+		case DOWN:
+			return 1;
+		case UP:
+			return -1;
+		default:
+			return 0;
+		}
+	}
+
+	/*
+	 * Returns the change of column of a move in the given direction
+	 */
+	private static int colStep(Direction direction) {
+		switch (direction) {
+		case LEFT:
+			return -1;
+		case RIGHT:
+			return 1;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Turns the piece a quarter turn about its center square[1] if possible,
+	 * by placing each square at its offset in the next orientation
+	 */
 	public void rotate() {
-		if(canRotate()){
-			for (Square s : square) {			
-				
-				s.rotateAbout(square[1]);
-				
-				
+		if (canRotate()) {
+			orientation = (orientation + 1) % ORIENTATIONS;
+			int[] offsets = rotations[orientation];
+			int row = square[1].getRow();
+			int col = square[1].getCol();
+			for (int i = 0; i < PIECE_COUNT; i++) {
+				square[i].setLocation(row + offsets[2 * i], col + offsets[2 * i + 1]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the current orientation of this piece, from 0 (as created) to
+	 * ORIENTATIONS - 1
+	 */
+	public int getOrientation() {
+		return orientation;
+	}
+
+	/**
+	 * Builds the rotation table of a piece from the offsets of its squares in
+	 * the orientation it is created in. Each following orientation is a
+	 * quarter turn of the previous one: (row, col) becomes (col, -row).
+	 * 
+	 * @param offsets
+	 *            the (row, col) offsets of each square from the center square,
+	 *            as row0, col0, row1, col1, ...
+	 * @return the offsets of the squares for each orientation
+	 */
+	protected static int[][] rotationTable(int... offsets) {
+		int[][] table = new int[ORIENTATIONS][];
+		table[0] = offsets;
+		for (int o = 1; o < ORIENTATIONS; o++) {
+			int[] previous = table[o - 1];
+			table[o] = new int[offsets.length];
+			for (int i = 0; i < offsets.length; i += 2) {
+				table[o][i] = previous[i + 1];
+				table[o][i + 1] = -previous[i];
 			}
 		}
+		return table;
 	}
 }
@@ -0,0 +1,147 @@
+/**
+ * A seeded PieceGenerator. The same seed always gives the same pieces.
+ * 
+ * The upcoming pieces are kept in a ring buffer, so that choosing a piece
+ * allocates nothing. Subclasses decide how each piece is chosen.
+ * 
+ * @author MO-Productions
+ */
+public abstract class AbstractPieceGenerator implements PieceGenerator {
+	// number of upcoming pieces shown by default
+	public static final int PREVIEW_SIZE = 5;
+
+	private long seed; // the seed the generator was created with
+
+	private long state; // state of the random sequence
+
+	private int[] queue; // the upcoming pieces, starting at head
+
+	private int head; // index in queue of the next piece
+
+	private int count; // number of pieces in queue
+
+	/**
+	 * Creates a generator
+	 * 
+	 * @param seed
+	 *            the seed of the random sequence
+	 * @param previewSize
+	 *            the number of upcoming pieces to show
+	 * @throws IllegalArgumentException
+	 *             if previewSize < 0
+	 */
+	protected AbstractPieceGenerator(long seed, int previewSize) {
+		if (previewSize < 0)
+			throw new IllegalArgumentException("Invalid preview size = "
+					+ previewSize);
+		this.seed = seed;
+		state = seed;
+		// one more than the preview: the piece next() returns
+		queue = new int[previewSize + 1];
+		head = 0;
+		count = 0;
+	}
+
+	/**
+	 * Returns the seed this generator was created with: a generator of the same
+	 * class and seed gives the same pieces
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Chooses a new piece to put at the end of the queue
+	 * 
+	 * @return the type of the new piece
+	 */
+	protected abstract int generate();
+
+	/**
+	 * Returns a random number from 0 to bound - 1
+	 * 
+	 * @param bound
+	 *            the number of possible values
+	 */
+	protected int nextInt(int bound) {
+		// SplitMix64: a 64 bit state, one multiply-xorshift mix per number
+		state += 0x9E3779B97F4A7C15L;
+		long z = state;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		// scale the top 32 bits to [0, bound)
+		return (int) (((z >>> 32) * bound) >>> 32);
+	}
+
+	public int next() {
+		fill();
+		int type = queue[head];
+		head = (head + 1) % queue.length;
+		count--;
+		return type;
+	}
+
+	public int peek(int i) {
+		if (i < 0 || i >= queue.length - 1)
+			throw new IndexOutOfBoundsException("Invalid preview index = " + i);
+		fill();
+		return queue[(head + i) % queue.length];
+	}
+
+	public int getPreviewSize() {
+		return queue.length - 1;
+	}
+
+	/**
+	 * Saves the state of this generator into the given state
+	 * 
+	 * @param state
+	 *            the state to save into
+	 */
+	void save(GameState state) {
+		state.generator = getClass();
+		state.random = this.state;
+		if (state.queue == null || state.queue.length != queue.length) {
+			state.queue = new int[queue.length];
+		}
+		System.arraycopy(queue, 0, state.queue, 0, queue.length);
+		state.head = head;
+		state.count = count;
+	}
+
+	/**
+	 * Puts this generator back as saved in the given state
+	 * 
+	 * @param state
+	 *            the state saved by save, from a generator of the same class
+	 *            and preview size
+	 * @throws IllegalArgumentException
+	 *             if the class or preview size saved is not the one of this
+	 *             generator
+	 */
+	void restore(GameState state) {
+		if (state.generator != getClass()) {
+			throw new IllegalArgumentException("Invalid generator = "
+					+ state.generator);
+		}
+		if (state.queue.length != queue.length) {
+			throw new IllegalArgumentException("Invalid preview size = "
+					+ (state.queue.length - 1));
+		}
+		this.state = state.random;
+		System.arraycopy(state.queue, 0, queue, 0, queue.length);
+		head = state.head;
+		count = state.count;
+	}
+
+	/*
+	 * Generates pieces until the queue is full
+	 */
+	private void fill() {
+		while (count < queue.length) {
+			queue[(head + count) % queue.length] = generate();
+			count++;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Plays the keys of an InputQueue on a Game, once every tick, repeating the
+ * left and right keys while they are held.
+ *
+ * A key pressed moves the piece once. Held for DAS ticks (delayed auto
+ * shift), it then moves the piece again every ARR ticks (auto repeat rate),
+ * or at an ARR of 0 all the way to the wall at once. The repeats of the
+ * operating system are ignored: how fast the piece moves only depends on the
+ * ticks of the game.
+ *
+ * @author MO-Productions
+ */
+public class AutoRepeat {
+
+	public static final int DEFAULT_DAS = 10; // ticks: 167 ms at 60 ticks/s
+
+	public static final int DEFAULT_ARR = 2; // ticks: 33 ms at 60 ticks/s
+
+	private InputQueue queue; // the keys to play
+
+	private int das; // ticks a key is held before it repeats
+
+	private int arr; // ticks between repeats, 0 to move to the wall
+
+	private boolean[] down; // down[d.ordinal()]: is the key of d down?
+
+	private Direction held; // LEFT or RIGHT while held, or null
+
+	private int heldTicks; // ticks the held key has been held
+
+	private long latency; // from the last event to when it was played
+
+	/**
+	 * Creates an auto repeat with DEFAULT_DAS and DEFAULT_ARR
+	 *
+	 * @param queue
+	 *            the keys to play
+	 */
+	public AutoRepeat(InputQueue queue) {
+		this(queue, DEFAULT_DAS, DEFAULT_ARR);
+	}
+
+	/**
+	 * Creates an auto repeat
+	 *
+	 * @param queue
+	 *            the keys to play
+	 * @param das
+	 *            the number of ticks a key is held before it repeats
+	 * @param arr
+	 *            the number of ticks between repeats, or 0 to move to the wall
+	 * @throws IllegalArgumentException
+	 *             if das or arr is negative
+	 */
+	public AutoRepeat(InputQueue queue, int das, int arr) {
+		if (das < 0) {
+			throw new IllegalArgumentException("Invalid das = " + das);
+		}
+		if (arr < 0) {
+			throw new IllegalArgumentException("Invalid arr = " + arr);
+		}
+		this.queue = queue;
+		this.das = das;
+		this.arr = arr;
+		down = new boolean[Direction.values().length];
+	}
+
+	/**
+	 * Plays the keys of the queue up to the given time, then the repeat of
+	 * the held key. Called once before every tick of the game, by the thread
+	 * playing it.
+	 *
+	 * @param game
+	 *            the game to play the keys on
+	 * @param until
+	 *            the System.nanoTime of the tick: later keys wait for the
+	 *            next tick
+	 */
+	public void update(Game game, long until) {
+		boolean polled = false;
+		while (queue.poll(until)) {
+			polled = true;
+			Direction direction = queue.getDirection();
+			if (!queue.isPressed()) {
+				down[direction.ordinal()] = false;
+				if (direction == held) {
+					// the other way repeats again if its key is still down
+					Direction other = held == Direction.LEFT ? Direction.RIGHT
+							: Direction.LEFT;
+					held = down[other.ordinal()] ? other : null;
+					heldTicks = 0;
+				}
+			} else if (!down[direction.ordinal()]) {
+				// a key already down is a repeat of the operating system
+				down[direction.ordinal()] = true;
+				if (direction == Direction.LEFT
+						|| direction == Direction.RIGHT) {
+					held = direction;
+					heldTicks = 0;
+				}
+				game.input(direction);
+			}
+		}
+		if (polled) {
+			latency = System.nanoTime() - queue.getTime();
+		}
+
+		if (held != null && ++heldTicks >= das) {
+			if (arr == 0) {
+				shift(game, held);
+			} else if ((heldTicks - das) % arr == 0) {
+				game.input(held);
+			}
+		}
+	}
+
+	/*
+	 * Moves the piece in the given direction as far as it goes
+	 */
+	private static void shift(Game game, Direction direction) {
+		AbstractPiece piece = game.getPiece();
+		for (int i = 0; i < Grid.WIDTH && piece != null
+				&& piece.canMove(direction); i++) {
+			game.input(direction);
+			piece = game.getPiece();
+		}
+	}
+
+	/**
+	 * Returns the time, in nanoseconds, from the last key event to when it
+	 * was played
+	 */
+	public long getLatency() {
+		return latency;
+	}
+}
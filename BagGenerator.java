@@ -0,0 +1,67 @@
+/**
+ * A PieceGenerator dealing the pieces from a shuffled bag holding one piece of
+ * each type. A new bag is started when the previous one is empty, so every
+ * group of TYPES pieces holds each piece exactly once.
+ * 
+ * @author MO-Productions
+ */
+public class BagGenerator extends AbstractPieceGenerator {
+	private int[] bag; // the pieces, the ones left in the bag first
+
+	private int left; // number of pieces left in the bag
+
+	/**
+	 * Creates a generator showing PREVIEW_SIZE upcoming pieces
+	 * 
+	 * @param seed
+	 *            the seed of the random sequence
+	 */
+	public BagGenerator(long seed) {
+		this(seed, PREVIEW_SIZE);
+	}
+
+	/**
+	 * Creates a generator
+	 * 
+	 * @param seed
+	 *            the seed of the random sequence
+	 * @param previewSize
+	 *            the number of upcoming pieces to show
+	 */
+	public BagGenerator(long seed, int previewSize) {
+		super(seed, previewSize);
+		bag = new int[TYPES];
+		for (int i = 0; i < TYPES; i++) {
+			bag[i] = i;
+		}
+		left = 0;
+	}
+
+	void save(GameState state) {
+		super.save(state);
+		if (state.bag == null) {
+			state.bag = new int[TYPES];
+		}
+		System.arraycopy(bag, 0, state.bag, 0, TYPES);
+		state.left = left;
+	}
+
+	void restore(GameState state) {
+		super.restore(state);
+		System.arraycopy(state.bag, 0, bag, 0, TYPES);
+		left = state.left;
+	}
+
+	protected int generate() {
+		if (left == 0) {
+			left = TYPES;
+		}
+		// draw one of the pieces left and swap it to the end of the bag
+		int i = nextInt(left);
+		int type = bag[i];
+		left--;
+		bag[i] = bag[left];
+		bag[left] = type;
+		return type;
+	}
+}
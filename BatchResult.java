@@ -0,0 +1,134 @@
+/**
+ * The results of a batch of simulated games, one game per seed of a range of
+ * seeds.
+ * 
+ * @author MO-Productions
+ */
+public class BatchResult {
+	private long firstSeed; // seed of the first game
+
+	// results of each game, indexed by seed - firstSeed
+	private int[] lines;
+
+	private int[] pieces;
+
+	private int[] moves;
+
+	private long nanos; // time taken by the whole batch
+
+	/**
+	 * Creates the results of count games, all zero
+	 * 
+	 * @param firstSeed
+	 *            the seed of the first game
+	 * @param count
+	 *            the number of games
+	 */
+	BatchResult(long firstSeed, int count) {
+		this.firstSeed = firstSeed;
+		lines = new int[count];
+		pieces = new int[count];
+		moves = new int[count];
+	}
+
+	/*
+	 * Records the result of one finished game
+	 */
+	void record(int index, Game game) {
+		lines[index] = game.getLines();
+		pieces[index] = game.getPieces();
+		moves[index] = game.getMoves();
+	}
+
+	/*
+	 * Records the time taken by the whole batch
+	 */
+	void setNanos(long nanos) {
+		this.nanos = nanos;
+	}
+
+	/**
+	 * Returns the number of games played
+	 */
+	public int getCount() {
+		return lines.length;
+	}
+
+	/**
+	 * Returns the seed of the first game
+	 */
+	public long getFirstSeed() {
+		return firstSeed;
+	}
+
+	/**
+	 * Returns the number of rows removed in game i (the game with seed
+	 * getFirstSeed() + i)
+	 */
+	public int getLines(int i) {
+		return lines[i];
+	}
+
+	/**
+	 * Returns the number of pieces placed in game i
+	 */
+	public int getPieces(int i) {
+		return pieces[i];
+	}
+
+	/**
+	 * Returns the number of moves and rotations played in game i
+	 */
+	public int getMoves(int i) {
+		return moves[i];
+	}
+
+	/**
+	 * Returns the number of rows removed in all the games
+	 */
+	public long getTotalLines() {
+		return sum(lines);
+	}
+
+	/**
+	 * Returns the number of pieces placed in all the games
+	 */
+	public long getTotalPieces() {
+		return sum(pieces);
+	}
+
+	/**
+	 * Returns the number of moves and rotations played in all the games
+	 */
+	public long getTotalMoves() {
+		return sum(moves);
+	}
+
+	/**
+	 * Returns the time taken by the whole batch in nanoseconds
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	private static long sum(int[] values) {
+		long total = 0;
+		for (int i = 0; i < values.length; i++) {
+			total += values[i];
+		}
+		return total;
+	}
+
+	public String toString() {
+		int n = Math.max(1, getCount());
+		double seconds = nanos / 1e9;
+		return String.format("%d games (seeds %d to %d) in %.2f s%n"
+				+ "lines: %d total, %.1f per game%n"
+				+ "pieces: %d total, %.1f per game, %.0f per second%n"
+				+ "moves: %d total, %.1f per game", getCount(), firstSeed,
+				firstSeed + getCount() - 1, seconds, getTotalLines(),
+				(double) getTotalLines() / n, getTotalPieces(),
+				(double) getTotalPieces() / n, getTotalPieces() / seconds,
+				getTotalMoves(), (double) getTotalMoves() / n);
+	}
+}
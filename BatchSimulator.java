@@ -0,0 +1,168 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.function.LongFunction;
+
+/**
+ * Plays many headless Tetris games in parallel, one game per seed of a range
+ * of seeds, and collects their results.
+ * 
+ * Every game has its own Game, Grid, generator and policy, so games share
+ * nothing while they run: the range of seeds is split across a fork/join pool
+ * and each game writes its results to its own slot of the BatchResult.
+ * 
+ * @author MO-Productions
+ */
+public class BatchSimulator {
+	// a game stops after this many pieces if it is not over by then
+	public static final int DEFAULT_MAX_PIECES = 10000;
+
+	private LongFunction<? extends PlacementPolicy> policies; // by seed
+
+	private LongFunction<? extends PieceGenerator> generators; // by seed
+
+	private int maxPieces; // pieces after which a game is stopped
+
+	private ForkJoinPool pool; // runs the games
+
+	/**
+	 * Creates a simulator dealing pieces from 7-piece bags, using every core
+	 * 
+	 * @param policies
+	 *            creates the policy playing a game from its seed
+	 */
+	public BatchSimulator(LongFunction<? extends PlacementPolicy> policies) {
+		this(policies, BagGenerator::new, DEFAULT_MAX_PIECES,
+				ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a simulator
+	 * 
+	 * @param policies
+	 *            creates the policy playing a game from its seed
+	 * @param generators
+	 *            creates the piece generator of a game from its seed
+	 * @param maxPieces
+	 *            the number of pieces after which a game is stopped
+	 * @param pool
+	 *            the pool running the games
+	 * @throws IllegalArgumentException
+	 *             if maxPieces <= 0
+	 */
+	public BatchSimulator(LongFunction<? extends PlacementPolicy> policies,
+			LongFunction<? extends PieceGenerator> generators, int maxPieces,
+			ForkJoinPool pool) {
+		if (maxPieces <= 0)
+			throw new IllegalArgumentException("Invalid maximum pieces = "
+					+ maxPieces);
+		this.policies = policies;
+		this.generators = generators;
+		this.maxPieces = maxPieces;
+		this.pool = pool;
+	}
+
+	/**
+	 * Plays one game for each seed from firstSeed to firstSeed + count - 1
+	 * 
+	 * @param firstSeed
+	 *            the seed of the first game
+	 * @param count
+	 *            the number of games
+	 * @return the results of the games
+	 */
+	public BatchResult run(long firstSeed, int count) {
+		BatchResult result = new BatchResult(firstSeed, count);
+		long start = System.nanoTime();
+		pool.invoke(new Games(i -> result.record(i, play(firstSeed + i)), 0,
+				count));
+		result.setNanos(System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Plays a game until it is over or maxPieces pieces have been placed
+	 * 
+	 * @param seed
+	 *            the seed of the game
+	 * @return the finished game
+	 */
+	public Game play(long seed) {
+		return play(new Game(generators.apply(seed)), policies.apply(seed),
+				maxPieces);
+	}
+
+	/**
+	 * Plays a game with the given policy until it is over or maxPieces pieces
+	 * have been placed
+	 * 
+	 * @param game
+	 *            the game to play
+	 * @param policy
+	 *            the policy placing the pieces
+	 * @param maxPieces
+	 *            the number of pieces after which the game is stopped
+	 * @return the game
+	 */
+	public static Game play(Game game, PlacementPolicy policy, int maxPieces) {
+		while (!game.isGameOver() && game.getPieces() < maxPieces) {
+			if (game.getPiece() == null) {
+				// brings in the next piece
+				game.movePiece(Direction.DOWN);
+			} else {
+				policy.place(game);
+			}
+		}
+		return game;
+	}
+
+	/*
+	 * Plays the games from index from to index to - 1 of a batch, splitting
+	 * the range in halves to spread it over the pool
+	 */
+	static class Games extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private IntConsumer game; // plays the game of an index
+
+		private int from, to;
+
+		Games(IntConsumer game, int from, int to) {
+			this.game = game;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from == 1) {
+				game.accept(from);
+			} else if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Games(game, from, middle), new Games(game,
+						middle, to));
+			}
+		}
+	}
+
+	/**
+	 * Plays a batch of games and prints the results
+	 * 
+	 * @param args
+	 *            the first seed, the number of games and the policy: "ai"
+	 *            (the default) or "random"
+	 */
+	public static void main(String[] args) {
+		long firstSeed = (args.length > 0) ? Long.parseLong(args[0]) : 0;
+		int count = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		String policy = (args.length > 2) ? args[2] : "ai";
+		BatchSimulator simulator;
+		if (policy.equals("random")) {
+			simulator = new BatchSimulator(RandomPolicy::forGame);
+		} else if (policy.equals("ai")) {
+			simulator = new BatchSimulator(seed -> new AIPolicy());
+		} else {
+			throw new IllegalArgumentException("Unknown policy = " + policy);
+		}
+		System.out.println(simulator.run(firstSeed, count));
+	}
+}
@@ -1,43 +1,46 @@
 /**
- * Handles events for the Tetris Game.  User events (key strokes) as well as periodic timer
- * events.
+ * Handles events for the Tetris Game: user events (key strokes).
+ * 
+ * The keys are not played here, on the event thread, but put with their time
+ * in an InputQueue: the GameLoop plays them before its next tick, repeating
+ * the keys held (see AutoRepeat).
  * 
  * @author CSC 143
  */
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 
 import javax.swing.JFrame;
-import javax.swing.Timer;
-
-public class EventController extends KeyAdapter implements ActionListener {
-
-	private Game game; // current game: grid and current piece
-	private Timer timer;
 
-	private static final double PIECE_MOVE_TIME = 0.8; // wait 0.8 s every time
-														// the piece moves down
-														// increase to slow it
-														// down
+public class EventController extends KeyAdapter {
 
-	private boolean gameOver;
+	private GameLoop loop; // plays the game: the keys and the falling piece
+	private InputQueue queue; // keys waiting for the loop
 
 	/**
-	 * Creates an EventController to handle key and timer events.
+	 * Creates an EventController to handle key events, and a game loop
+	 * playing them and making the piece fall
 	 * 
 	 * @param game
 	 *            the game this is controlling
 	 */
 	public EventController(Game game) {
-		this.game = game;
-		gameOver = false;
-		double delay = 1000 * PIECE_MOVE_TIME; // in milliseconds
-		timer = new Timer((int) delay, this);
-		timer.setCoalesce(true); // if multiple events pending, bunch them to
-		// 1 event
-		timer.start();
+		this(new GameLoop(game, null), new InputQueue());
+		loop.setInput(new AutoRepeat(queue));
+		loop.start();
+	}
+
+	/**
+	 * Creates an EventController to handle key events
+	 * 
+	 * @param loop
+	 *            the loop playing the game, stopped on quitting
+	 * @param queue
+	 *            the queue of keys played by the loop
+	 */
+	public EventController(GameLoop loop, InputQueue queue) {
+		this.loop = loop;
+		this.queue = queue;
 	}
 
 	/**
@@ -48,44 +51,39 @@ public class EventController extends KeyAdapter implements ActionListener {
 	public void keyPressed(KeyEvent e) {
 		// if 'Q', quit the game
 		if (e.getKeyCode() == KeyEvent.VK_Q) {
-			timer.stop();
+			loop.stop();
 			((JFrame) e.getSource()).dispose();
 		}
-		if (!gameOver) {
+		handleKey(e, true);
+	}
+
+	/**
+	 * Responds to keys being released, which stops them repeating
+	 */
+	public void keyReleased(KeyEvent e) {
+		handleKey(e, false);
+	}
+
+	/**
+	 * Queues the direction of the key for the game loop
+	 */
+	private void handleKey(KeyEvent e, boolean pressed) {
+		// the game is over once the loop stopped
+		if (loop.isRunning()) {
 			switch (e.getKeyCode()) {
 			case KeyEvent.VK_SPACE:
-				handleMove(Direction.DROP);
+				queue.offer(System.nanoTime(), Direction.DROP, pressed);
 				break;
 			// HANDLE other keystrokes here
 			case KeyEvent.VK_LEFT:
-				handleMove(Direction.LEFT);
+				queue.offer(System.nanoTime(), Direction.LEFT, pressed);
 				break;
 			case KeyEvent.VK_RIGHT:
-				handleMove(Direction.RIGHT);
+				queue.offer(System.nanoTime(), Direction.RIGHT, pressed);
 				break;
 			case KeyEvent.VK_DOWN:
-				handleMove(Direction.ROTATE);			
-
+				queue.offer(System.nanoTime(), Direction.ROTATE, pressed);
 			}
 		}
 	}
-
-	/** Updates the game periodically based on a timer event */
-	public void actionPerformed(ActionEvent e) {
-		handleMove(Direction.DOWN);
-	}
-
-	/**
-	 * Update the game by moving in the given direction
-	 */
-	private void handleMove(Direction direction) {
-		if(direction == Direction.ROTATE){
-		game.rotatePiece(direction);	
-		} else{
-		game.movePiece(direction);
-		}
-		gameOver = game.isGameOver();
-		if (gameOver)
-			timer.stop();
-	}
 }
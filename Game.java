@@ -1,41 +1,125 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Point;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Manages the game Tetris. Keeps track of the current piece and the grid.
- * Updates the display whenever the state of the game has changed.
+ * Tells its listeners (e.g. the display) whenever the state of the game has
+ * changed.
+ * 
+ * A Game does not need a display: without listeners it runs headless, and no
+ * Swing component or event thread is involved in its rules.
  * 
  * @author CSC 143
  */
 public class Game {
 
+	// where a new piece appears in the grid
+	public static final int SPAWN_ROW = 1;
+
+	public static final int SPAWN_COL = Grid.WIDTH / 2 - 1;
+
+	// gravity is counted in 1/GRAVITY_UNIT of a row per tick
+	public static final int GRAVITY_UNIT = 1 << 16;
+
+	// a row every 0.8 s at 60 ticks per second
+	public static final double DEFAULT_GRAVITY = 1 / (0.8 * 60);
+
+	// fastest gravity: the piece lands on the tick it appears
+	public static final double MAX_GRAVITY = Grid.HEIGHT;
+
+	// color of the garbage rows sent by an opponent
+	public static final Color GARBAGE = Color.DARK_GRAY;
+
 	private Grid grid; // the grid that makes up the Tetris board
 
-	private Tetris display; // the visual for the Tetris game
+	// notified of every change, e.g. the visual for the Tetris game
+	private List<GameListener> listeners;
 
 	private AbstractPiece piece; // the current piece that is dropping
 
-	Random rand = new Random();
-	
-	
-	
+	private int pieceType; // the type of the current piece
+
+	private AbstractPiece[] shapes; // the piece of each type, once created
+
+	private PieceGenerator generator; // chooses the next piece
+
 	private boolean isOver; // has the game finished?
 
+	private int pieces; // number of pieces locked in the grid
+
+	private int lines; // number of rows removed
+
+	private int moves; // number of moves and rotations played
+
+	private long ticks; // number of ticks played
+
+	private int gravity; // rows per tick the piece falls, in GRAVITY_UNIT
+
+	private int fall; // part of a row the piece has fallen, in GRAVITY_UNIT
+
+	private ReplayRecorder recorder; // records the keys played, or null
+
+	private GameMetrics metrics; // measures the game, or null
+
+	private int cleared; // number of rows removed by the last move
+
+	// squares changed since the display last drew them, in rows and columns
+	private int dirtyTop, dirtyBottom, dirtyLeft, dirtyRight;
+
+	private int lockBottom; // lowest row of the last piece locked
+
+	/**
+	 * Creates a headless Tetris game
+	 */
+	public Game() {
+		this((GameListener) null);
+	}
+
+	/**
+	 * Creates a Tetris game with randomly chosen pieces
+	 * 
+	 * @param display
+	 *            the listener that shows the game, or null for none
+	 */
+	public Game(GameListener display) {
+		this(display, new UniformGenerator(System.nanoTime()));
+	}
+
+	/**
+	 * Creates a headless Tetris game
+	 * 
+	 * @param generator
+	 *            chooses the pieces of the game
+	 */
+	public Game(PieceGenerator generator) {
+		this(null, generator);
+	}
+
 	/**
 	 * Creates a Tetris game
 	 * 
-	 * @param Tetris
-	 *            the display
+	 * @param display
+	 *            the listener that shows the game, or null for none
+	 * @param generator
+	 *            chooses the pieces of the game
 	 */
-	public Game(Tetris display) {
+	public Game(GameListener display, PieceGenerator generator) {
 		grid = new Grid();
-		this.display = display;
+		this.generator = generator;
+		shapes = new AbstractPiece[PieceGenerator.TYPES];
+		listeners = new ArrayList<GameListener>();
+		if (display != null) {
+			listeners.add(display);
+		}
 		//piece = new LShape(1, Grid.WIDTH / 2 - 1, grid);
 		Piece piece;
 		updatePiece();
 		isOver = false;
+		setGravity(DEFAULT_GRAVITY);
+		// nothing has been drawn yet
+		markDirty(0, Grid.HEIGHT - 1, 0, Grid.WIDTH - 1);
 	}
 
 	/**
@@ -58,15 +142,21 @@ public class Game {
 	 *            direction to move
 	 */
 	public void movePiece(Direction direction) {
+		boolean timed = metrics != null && direction == Direction.DROP;
+		long start = timed ? System.nanoTime() : 0;
+		MoveEvent event = null;
+		if (MoveEvent.isOn()) {
+			event = new MoveEvent();
+			event.begin();
+		}
 		
 		if (piece != null) {
+			markPiece();
 			// Added if-statement to check for drop-direction
 			// If direction is DROP
 			if(direction == Direction.DROP){
-				// while the piece CAN move down, it does
-				while(piece.canMove(Direction.DOWN)){
-					piece.move(Direction.DOWN);
-				}
+				// the piece goes straight to where it lands
+				piece.drop();
 			}
 //			else if (direction == Direction.ROTATE){
 //				piece.rotate();
@@ -76,9 +166,15 @@ public class Game {
 			}
 		}
 		
-		updatePiece();
-		display.update();
-		grid.checkRows();
+		moves++;
+		endMove();
+		if (timed) {
+			metrics.getDropHistogram().record(System.nanoTime() - start);
+		}
+		if (event != null) {
+			event.direction = direction.name();
+			commit(event, cleared);
+		}
 	}
 	
 	/**
@@ -87,92 +183,638 @@ public class Game {
 	public void rotatePiece(Direction direction) {
 		
 		if (piece != null) {
+			long start = metrics != null ? System.nanoTime() : 0;
+			RotateEvent event = null;
+			if (RotateEvent.isOn()) {
+				event = new RotateEvent();
+				event.begin();
+			}
+			markPiece();
 
 				if (direction == Direction.ROTATE){
 					piece.rotate();
 				
 		}
 		
+		moves++;
+		endMove();
+			if (metrics != null) {
+				metrics.getRotateHistogram().record(System.nanoTime() - start);
+			}
+			if (event != null) {
+				commit(event, cleared);
+			}
+		}
+	}
+
+	/**
+	 * Saves the state of this game into the given state: the grid, the piece,
+	 * the generator and the counters. Allocates nothing once the state has
+	 * been saved into.
+	 * 
+	 * @param state
+	 *            the state to save into, see restore
+	 * @throws IllegalArgumentException
+	 *             if the generator of this game is not an
+	 *             AbstractPieceGenerator
+	 */
+	public void save(GameState state) {
+		if (!(generator instanceof AbstractPieceGenerator)) {
+			throw new IllegalArgumentException("Unknown generator = "
+					+ generator);
+		}
+		grid.save(state);
+		((AbstractPieceGenerator) generator).save(state);
+		state.hasPiece = piece != null;
+		state.pieceType = pieceType;
+		if (piece != null) {
+			state.orientation = piece.getOrientation();
+			state.pieceRow = piece.getRow();
+			state.pieceCol = piece.getCol();
+		}
+		state.isOver = isOver;
+		state.pieces = pieces;
+		state.lines = lines;
+		state.moves = moves;
+		state.ticks = ticks;
+		state.gravity = gravity;
+		state.fall = fall;
+		state.lockBottom = lockBottom;
+		state.hasGame = true;
+	}
+
+	/**
+	 * Puts this game back as saved in the given state, e.g. to undo the moves
+	 * since, or to try other moves from there. Takes time in the number of
+	 * rows. The whole grid is then dirty, and the listeners are told.
+	 * 
+	 * @param state
+	 *            the state saved by save, from this game or another one with
+	 *            the same class of generator
+	 * @throws IllegalArgumentException
+	 *             if no game was saved in state, or from another class of
+	 *             generator
+	 * @throws IllegalStateException
+	 *             if this game is being recorded: a replay only goes forward
+	 */
+	public void restore(GameState state) {
+		if (!state.hasGame) {
+			throw new IllegalArgumentException("No game saved");
+		}
+		if (recorder != null) {
+			throw new IllegalStateException("Game recorded");
+		}
+		if (!(generator instanceof AbstractPieceGenerator)) {
+			throw new IllegalArgumentException("Unknown generator = "
+					+ generator);
+		}
+		((AbstractPieceGenerator) generator).restore(state);
+		grid.restore(state);
+		pieceType = state.pieceType;
+		if (state.hasPiece) {
+			piece = shapes[pieceType];
+			if (piece == null) {
+				piece = createPiece(pieceType, state.pieceRow, state.pieceCol,
+						grid);
+				shapes[pieceType] = piece;
+			}
+			piece.reset(state.pieceRow, state.pieceCol, state.orientation);
+		} else {
+			piece = null;
+		}
+		isOver = state.isOver;
+		pieces = state.pieces;
+		lines = state.lines;
+		moves = state.moves;
+		ticks = state.ticks;
+		gravity = state.gravity;
+		fall = state.fall;
+		lockBottom = state.lockBottom;
+		markDirty(0, Grid.HEIGHT - 1, 0, Grid.WIDTH - 1);
+		fireGameChanged();
+	}
+
+	/**
+	 * Pushes garbage rows in at the bottom of the grid, as sent by an
+	 * opponent (see VersusMatch). The game is over if squares of the grid are
+	 * pushed out of the top, or onto the piece. The whole grid is then dirty,
+	 * and the listeners are told.
+	 * 
+	 * @param count
+	 *            the number of garbage rows, from 0 to Grid.HEIGHT
+	 * @param hole
+	 *            the column left empty in every garbage row
+	 * @throws IllegalArgumentException
+	 *             if count or hole is outside of the grid
+	 * @throws IllegalStateException
+	 *             if this game is being recorded: a replay only holds keys
+	 */
+	public void addGarbage(int count, int hole) {
+		if (recorder != null) {
+			throw new IllegalStateException("Game recorded");
+		}
+		if (grid.addGarbage(count, hole, GARBAGE)
+				|| (piece != null && piece.isBlocked())) {
+			isOver = true;
+		}
+		markDirty(0, Grid.HEIGHT - 1, 0, Grid.WIDTH - 1);
+		fireGameChanged();
+	}
+
+	/**
+	 * Plays a key of the player: rotates the piece for ROTATE, moves it in the
+	 * given direction otherwise
+	 * 
+	 * @param direction
+	 *            the direction of the key
+	 */
+	public void input(Direction direction) {
+		if (recorder != null) {
+			recorder.record(ticks, direction);
+		}
+		if (direction == Direction.ROTATE) {
+			rotatePiece(direction);
+		} else {
+			movePiece(direction);
+		}
+	}
+
+	/**
+	 * Sets the recorder of the keys played through input, see ReplayRecorder
+	 * 
+	 * @param recorder
+	 *            the recorder, or null for none
+	 */
+	void setRecorder(ReplayRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Sets the metrics recording how long the ticks, drops, rotations and line
+	 * clears of this game take, and its pieces and rows
+	 * 
+	 * @param metrics
+	 *            the metrics, or null for none
+	 */
+	public void setMetrics(GameMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the metrics of this game, or null if it has none
+	 */
+	public GameMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Plays one tick of the game: the piece falls by the gravity, and locks
+	 * when it falls onto the grid. Between a piece locking and the next one,
+	 * the tick brings in the next piece.
+	 * 
+	 * Gravity is given in rows per tick (G): at 1/60 G the piece falls a row
+	 * every 60 ticks, at 20 G it falls to where it lands within one tick.
+	 * The listeners are told after every tick, the piece having moved or not.
+	 * Once the game is over, a tick does nothing.
+	 */
+	public void tick() {
+		if (isGameOver()) {
+			return;
+		}
+		TickEvent event = null;
+		if (TickEvent.isOn()) {
+			event = new TickEvent();
+			event.begin();
+		}
+		if (metrics == null) {
+			playTick();
+		} else {
+			long start = System.nanoTime();
+			playTick();
+			long end = System.nanoTime();
+			metrics.getTickHistogram().record(end - start);
+			metrics.sample(end);
+		}
+		if (event != null) {
+			commit(event, cleared);
+		}
+	}
+
+	/*
+	 * Ends the given event of the piece, with the rows removed, and records
+	 * it
+	 */
+	private void commit(GameEvent event, int rowsCleared) {
+		event.end();
+		event.pieceType = pieceType;
+		event.rowsCleared = rowsCleared;
+		event.commit();
+	}
+
+	/*
+	 * Plays one tick of the game, see tick
+	 */
+	private void playTick() {
+		ticks++;
+		cleared = 0;
+		if (piece == null) {
+			endMove();
+			return;
+		}
+		fall += gravity;
+		if (fall < GRAVITY_UNIT) {
+			// only the part of a row fallen changed
+			fireGameChanged();
+			return;
+		}
+		int rows = fall / GRAVITY_UNIT;
+		fall %= GRAVITY_UNIT;
+		markPiece();
+		// the piece falls no further than where it lands, then endMove locks
+		// it if it has landed, whether it had rows left to fall or not
+		int distance = piece.getDropDistance();
+		for (int i = 0; i < Math.min(rows, distance); i++) {
+			piece.move(Direction.DOWN);
+		}
+		endMove();
+	}
+
+	/**
+	 * Sets how fast the piece falls
+	 * 
+	 * @param rowsPerTick
+	 *            the number of rows the piece falls each tick, e.g. 1.0 / 60
+	 *            for a row every 60 ticks
+	 * @throws IllegalArgumentException
+	 *             if rowsPerTick is not between 0 (excluded) and MAX_GRAVITY
+	 */
+	public void setGravity(double rowsPerTick) {
+		if (!(rowsPerTick > 0 && rowsPerTick <= MAX_GRAVITY)) {
+			throw new IllegalArgumentException("Invalid gravity = "
+					+ rowsPerTick);
+		}
+		// rounded up, so that the piece never falls slower than asked
+		gravity = (int) Math.ceil(rowsPerTick * GRAVITY_UNIT);
+	}
+
+	/**
+	 * Returns the number of rows the piece falls each tick
+	 */
+	public double getGravity() {
+		return (double) gravity / GRAVITY_UNIT;
+	}
+
+	/**
+	 * Returns the part of a row the piece has fallen since it last moved down
+	 * a full row, from 0 (included) to 1 (excluded). A display may draw the
+	 * piece that much lower.
+	 */
+	public double getFall() {
+		return (double) fall / GRAVITY_UNIT;
+	}
+
+	/*
+	 * Locks the piece if it landed or brings in a new one, removes the solid
+	 * rows, then tells the listeners
+	 */
+	private void endMove() {
+		markPiece();
 		updatePiece();
-		display.update();
-		grid.checkRows();
+		long start = metrics != null ? System.nanoTime() : 0;
+		LineClearEvent event = null;
+		if (LineClearEvent.isOn()) {
+			event = new LineClearEvent();
+			event.begin();
+		}
+		cleared = grid.checkRows();
+		if (cleared > 0) {
+			if (event != null) {
+				commit(event, cleared);
+			}
+			if (metrics != null) {
+				metrics.getLineClearHistogram().record(
+						System.nanoTime() - start);
+				metrics.addLines(cleared);
+			}
+			// every row above the lowest one removed has moved
+			lines += cleared;
+			markDirty(0, lockBottom, 0, Grid.WIDTH - 1);
+		}
+		markPiece();
+		fireGameChanged();
+	}
+
+	/**
+	 * Places the piece: turns it to the given orientation, slides it so that
+	 * its leftmost square is in the given column, then drops it. The piece
+	 * stops turning or sliding where it is blocked.
+	 * 
+	 * This is how a computer player plays a piece, without the lock that
+	 * movePiece and rotatePiece apply when the piece has landed.
+	 * 
+	 * @param orientation
+	 *            the orientation of the piece, from 0 to
+	 *            AbstractPiece.ORIENTATIONS - 1
+	 * @param column
+	 *            the column of the leftmost square of the piece
+	 */
+	public void place(int orientation, int column) {
+		if (piece == null) {
+			return;
+		}
+		markPiece();
+		while (piece.getOrientation() != orientation && piece.canRotate()) {
+			piece.rotate();
+		}
+		int left = piece.getLeftColumn();
+		while (left > column && piece.canMove(Direction.LEFT)) {
+			piece.move(Direction.LEFT);
+			left--;
+		}
+		while (left < column && piece.canMove(Direction.RIGHT)) {
+			piece.move(Direction.RIGHT);
+			left++;
+		}
+		movePiece(Direction.DROP);
+	}
+
+	/*
+	 * Records that the squares of the piece, where it is now, need to be
+	 * drawn again
+	 */
+	private void markPiece() {
+		if (piece == null) {
+			return;
+		}
+		for (int i = 0; i < piece.getSquareCount(); i++) {
+			int row = piece.getSquareRow(i), col = piece.getSquareCol(i);
+			markDirty(row, row, col, col);
+		}
+	}
+
+	/*
+	 * Records that the squares from rows top to bottom and columns left to
+	 * right need to be drawn again
+	 */
+	private void markDirty(int top, int bottom, int left, int right) {
+		dirtyTop = Math.min(dirtyTop, top);
+		dirtyBottom = Math.max(dirtyBottom, bottom);
+		dirtyLeft = Math.min(dirtyLeft, left);
+		dirtyRight = Math.max(dirtyRight, right);
+	}
+
+	/**
+	 * Returns true if some squares changed since the last call to clearDirty.
+	 * The changed squares all lie between the dirty rows and columns.
+	 */
+	public boolean isDirty() {
+		return dirtyTop <= dirtyBottom;
+	}
+
+	/**
+	 * Returns the highest row with a changed square
+	 */
+	public int getDirtyTop() {
+		return dirtyTop;
+	}
+
+	/**
+	 * Returns the lowest row with a changed square
+	 */
+	public int getDirtyBottom() {
+		return dirtyBottom;
+	}
+
+	/**
+	 * Returns the leftmost column with a changed square
+	 */
+	public int getDirtyLeft() {
+		return dirtyLeft;
+	}
+
+	/**
+	 * Returns the rightmost column with a changed square
+	 */
+	public int getDirtyRight() {
+		return dirtyRight;
+	}
+
+	/**
+	 * Forgets the changed squares, once the display has drawn them
+	 */
+	public void clearDirty() {
+		dirtyTop = Grid.HEIGHT;
+		dirtyBottom = -1;
+		dirtyLeft = Grid.WIDTH;
+		dirtyRight = -1;
+	}
+
+	/**
+	 * Adds a listener to be told of every change of this game
+	 * 
+	 * @param listener
+	 *            the listener to add
+	 */
+	public void addGameListener(GameListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addGameListener
+	 * 
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void removeGameListener(GameListener listener) {
+		listeners.remove(listener);
+	}
+
+	/*
+	 * Tells every listener that the game changed
+	 */
+	private void fireGameChanged() {
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).gameChanged(this);
 		}
 	}
 
+	/**
+	 * Returns the grid of this game
+	 */
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Returns the generator choosing the pieces of this game, e.g. to show the
+	 * upcoming pieces
+	 */
+	public PieceGenerator getGenerator() {
+		return generator;
+	}
+
+	/**
+	 * Returns the piece that is dropping, or null between a piece locking and
+	 * the next one appearing
+	 */
+	public AbstractPiece getPiece() {
+		return piece;
+	}
+
+	/**
+	 * Returns the row the center of the dropping piece lands on if dropped, or
+	 * -1 if no piece is dropping. See AbstractPiece.getLandingRow.
+	 */
+	public int getLandingRow() {
+		if (piece == null) {
+			return -1;
+		}
+		return piece.getLandingRow();
+	}
+
+	/**
+	 * Returns the type of the piece that is dropping, or of the last one if
+	 * none is
+	 */
+	public int getPieceType() {
+		return pieceType;
+	}
+
+	/**
+	 * Returns the number of pieces locked in the grid so far
+	 */
+	public int getPieces() {
+		return pieces;
+	}
+
+	/**
+	 * Returns the number of rows removed so far
+	 */
+	public int getLines() {
+		return lines;
+	}
+
+	/**
+	 * Returns the number of moves and rotations played so far
+	 */
+	public int getMoves() {
+		return moves;
+	}
+
+	/**
+	 * Returns the number of ticks played so far
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
 	/**
 	 * Returns true if the game is over
 	 */
 	public boolean isGameOver() {
 		// game is over if the piece occupies the same space as some non-empty
 		// part of the grid. Usually happens when a new piece is made
-		if (piece == null) {
-			return false;
-		}
 
-		// check if game is already over
+		// check if game is already over (e.g. pushed out by garbage)
 		if (isOver) {
 			return true;
 		}
+		if (piece == null) {
+			return false;
+		}
 
 		// check every part of the piece
-		Point[] p = piece.getLocations();
-		for (int i = 0; i < p.length; i++) {
-			if (grid.isSet((int) p[i].getX(), (int) p[i].getY())) {
-				isOver = true;
-				return true;
-			}
+		if (piece.isBlocked()) {
+			isOver = true;
+			return true;
 		}
 		return false;
 	}
 
 	
 	
+	/**
+	 * Creates a piece of the given type
+	 * 
+	 * @param type
+	 *            the type of the piece, from 0 to PieceGenerator.TYPES - 1
+	 * @param r
+	 *            row location for the piece
+	 * @param c
+	 *            column location for the piece
+	 * @param g
+	 *            the grid for the piece
+	 * @throws IllegalArgumentException
+	 *             if type is not a piece type
+	 */
+	public static AbstractPiece createPiece(int type, int r, int c, Grid g) {
+		switch (type) {
+		case 0:
+			return new SShape(r, c, g);
+		case 1:
+			return new SquareShape(r, c, g);
+		case 2:
+			return new ReverseLShape(r, c, g);
+		case 3:
+			return new TShape(r, c, g);
+		case 4:
+			return new ReverseSShape(r, c, g);
+		case 5:
+			return new StraightShape(r, c, g);
+		case 6:
+			return new LShape(r, c, g);
+		default:
+			throw new IllegalArgumentException("Unknown piece type = " + type);
+		}
+	}
+
 	/** Updates the piece */
 	private void updatePiece() {
 		if (piece == null) {
 			// CREATE A NEW PIECE HERE
 			//piece = new LShape(1, Grid.WIDTH/2 -1, grid);
-			rand = new Random();
-			int n = rand.nextInt(7);
-			System.out.println(n);
-			switch(n) {
-				case 0:
-					piece = new SShape(1, Grid.WIDTH/2 -1, grid);
-					break;
-				case 1:
-					piece = new SquareShape(1, Grid.WIDTH/2 -1, grid);
-					break;
-				case 2:
-					piece = new ReverseLShape(1, Grid.WIDTH/2 -1, grid);
-					break;
-				case 3: 
-					piece = new TShape(1, Grid.WIDTH/2 -1, grid);
-					break;
-				case 4: 
-					piece = new ReverseSShape(1, Grid.WIDTH/2 -1, grid);
-					break;
-				case 5: 
-					piece = new StraightShape(1, Grid.WIDTH/2 -1, grid);
-					break;
-				case 6:
-				piece = new LShape(1, Grid.WIDTH/2 -1, grid);
-					break;
-				default: 
-					System.out.println("Something's Amiss!");
-					break;
+			// one piece of each type is created, then reused
+			SpawnEvent event = null;
+			if (SpawnEvent.isOn()) {
+				event = new SpawnEvent();
+				event.begin();
+			}
+			pieceType = generator.next();
+			piece = shapes[pieceType];
+			if (piece == null) {
+				piece = createPiece(pieceType, SPAWN_ROW, SPAWN_COL, grid);
+				shapes[pieceType] = piece;
+			} else {
+				piece.reset(SPAWN_ROW, SPAWN_COL);
+			}
+			fall = 0;
+			if (event != null) {
+				commit(event, 0);
 			}
- 
 		}
 
 		// set Grid positions corresponding to frozen piece
 		// and then release the piece
 		else if (!piece.canMove(Direction.DOWN)) {
-			Point[] p = piece.getLocations();
+			LockEvent event = null;
+			if (LockEvent.isOn()) {
+				event = new LockEvent();
+				event.begin();
+			}
 			Color c = piece.getColor();
-			for (int i = 0; i < p.length; i++) {
-				grid.set((int) p[i].getX(), (int) p[i].getY(), c);
+			lockBottom = 0;
+			for (int i = 0; i < piece.getSquareCount(); i++) {
+				grid.set(piece.getSquareRow(i), piece.getSquareCol(i), c);
+				lockBottom = Math.max(lockBottom, piece.getSquareRow(i));
 			}
 			piece = null;
+			pieces++;
+			if (metrics != null) {
+				metrics.addPieces(1);
+			}
+			if (event != null) {
+				commit(event, 0);
+			}
 		}
 
 	}
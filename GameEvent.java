@@ -0,0 +1,33 @@
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event of the game, with the piece involved and the
+ * rows it removed. Its duration is the time the game took.
+ *
+ * The events are off by default: they are turned on in the settings of a
+ * recording, e.g. jfr configure +tetris.Tick#enabled=true, or all at once
+ * with the category Tetris in JDK Mission Control. Off, an event is not even
+ * created: each event class caches its EventType, and its static isOn asks
+ * that type whether a recording takes the events, before the game makes
+ * one. The usual new, begin and shouldCommit would allocate every event
+ * until the JIT compiles the code and removes it, and the moves of a game
+ * must allocate nothing from the first ones on (see
+ * testSteadyStateAllocatesNothing).
+ *
+ * @author MO-Productions
+ */
+@Category("Tetris")
+@Enabled(false)
+@StackTrace(false)
+public abstract class GameEvent extends Event {
+
+	@Label("Piece Type")
+	int pieceType; // as in Game.createPiece, -1 if no piece
+
+	@Label("Rows Cleared")
+	int rowsCleared;
+}
@@ -0,0 +1,19 @@
+/**
+ * Receives the changes of a Tetris Game.
+ * 
+ * The Game itself knows nothing about how it is shown: a display (such as the
+ * Tetris panel) registers as a listener and redraws when told the game has
+ * changed. A Game without listeners runs headless, e.g. for simulations.
+ * 
+ * @author MO-Productions
+ */
+public interface GameListener {
+	/**
+	 * Called after every change of the game: a tick, a move, a rotation, a new
+	 * piece or removed rows
+	 * 
+	 * @param game
+	 *            the game that changed
+	 */
+	public void gameChanged(Game game);
+}
@@ -0,0 +1,210 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a Game at a fixed number of ticks per second, on a thread of its own.
+ *
+ * The ticks are timed from System.nanoTime: each has its own deadline, one
+ * tick length after the previous one. A tick that comes late is played as
+ * soon as possible, so no tick is lost when the machine is busy (e.g.
+ * painting); only when the loop is more than a second behind are the missing
+ * ticks given up.
+ *
+ * Between ticks, the loop calls its frame action at its own rate, e.g. to
+ * repaint the display. getAlpha tells how far the loop is between the last
+ * tick and the next, so that the display can draw the falling piece between
+ * rows.
+ *
+ * Before every tick, the loop plays the keys pressed until then (see
+ * AutoRepeat).
+ *
+ * The game is played while holding its lock: others reading or changing the
+ * game while the loop runs must synchronize on it as well.
+ *
+ * @author MO-Productions
+ */
+public class GameLoop implements Runnable {
+
+	public static final int TICKS_PER_SECOND = 60;
+
+	public static final int FRAMES_PER_SECOND = 144;
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private Game game; // the game played
+
+	private Runnable frame; // called once per frame, or null
+
+	private AutoRepeat input; // played before every tick, or null
+
+	private long tickNanos; // length of a tick
+
+	private long frameNanos; // length of a frame
+
+	private long nextTick; // deadline of the next tick
+
+	private long droppedTicks; // ticks given up when too far behind
+
+	private volatile double alpha; // from the last tick to the next one
+
+	private volatile boolean running;
+
+	private Thread thread;
+
+	/**
+	 * Creates a loop playing the given game at TICKS_PER_SECOND, calling the
+	 * given frame action FRAMES_PER_SECOND times a second
+	 *
+	 * @param game
+	 *            the game to play
+	 * @param frame
+	 *            called for every frame, or null for none
+	 */
+	public GameLoop(Game game, Runnable frame) {
+		this(game, frame, TICKS_PER_SECOND, FRAMES_PER_SECOND);
+	}
+
+	/**
+	 * Creates a loop
+	 *
+	 * @param game
+	 *            the game to play
+	 * @param frame
+	 *            called for every frame, or null for none
+	 * @param ticksPerSecond
+	 *            number of ticks played every second
+	 * @param framesPerSecond
+	 *            number of times frame is called every second
+	 * @throws IllegalArgumentException
+	 *             if ticksPerSecond or framesPerSecond is not positive
+	 */
+	public GameLoop(Game game, Runnable frame, int ticksPerSecond,
+			int framesPerSecond) {
+		if (ticksPerSecond <= 0) {
+			throw new IllegalArgumentException("Invalid ticksPerSecond = "
+					+ ticksPerSecond);
+		}
+		if (framesPerSecond <= 0) {
+			throw new IllegalArgumentException("Invalid framesPerSecond = "
+					+ framesPerSecond);
+		}
+		this.game = game;
+		this.frame = frame;
+		tickNanos = NANOS_PER_SECOND / ticksPerSecond;
+		frameNanos = NANOS_PER_SECOND / framesPerSecond;
+	}
+
+	/**
+	 * Sets the keys played before every tick
+	 *
+	 * @param input
+	 *            the keys of the player, or null for none
+	 */
+	public void setInput(AutoRepeat input) {
+		this.input = input;
+	}
+
+	/**
+	 * Starts playing the game on a new thread
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "GameLoop");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops playing the game. The loop finishes its current tick or frame.
+	 */
+	public synchronized void stop() {
+		running = false;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			thread = null;
+		}
+	}
+
+	/**
+	 * Returns true if the loop is playing
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Plays the game until it is over or the loop is stopped
+	 */
+	public void run() {
+		long now = System.nanoTime();
+		nextTick = now + tickNanos;
+		long nextFrame = now;
+		while (running) {
+			now = System.nanoTime();
+			if (now - nextTick >= 0) {
+				catchUp(now);
+			}
+			if (now - nextFrame >= 0) {
+				alpha = 1 - (double) (nextTick - now) / tickNanos;
+				if (frame != null) {
+					frame.run();
+				}
+				// a late frame is not played again: the next one shows all
+				nextFrame = Math.max(nextFrame + frameNanos, now);
+			}
+			if (!running) {
+				break;
+			}
+			long next = nextTick - nextFrame < 0 ? nextTick : nextFrame;
+			long wait = next - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(this, wait);
+			}
+		}
+		running = false;
+	}
+
+	/*
+	 * Plays every tick due by now, unless more than a second's worth
+	 */
+	private void catchUp(long now) {
+		long due = (now - nextTick) / tickNanos + 1;
+		long late = NANOS_PER_SECOND / tickNanos;
+		if (due > late) {
+			droppedTicks += due - late;
+			nextTick += (due - late) * tickNanos;
+			due = late;
+		}
+		synchronized (game) {
+			for (long i = 0; i < due && !game.isGameOver(); i++) {
+				if (input != null) {
+					// the keys pressed before this tick was due
+					input.update(game, nextTick + i * tickNanos);
+				}
+				game.tick();
+			}
+			if (game.isGameOver()) {
+				running = false;
+			}
+		}
+		nextTick += due * tickNanos;
+	}
+
+	/**
+	 * Returns how far the loop is from the last tick to the next one, from 0
+	 * to 1, as of the last frame
+	 */
+	public double getAlpha() {
+		return alpha;
+	}
+
+	/**
+	 * Returns the number of ticks given up because the loop was more than a
+	 * second behind
+	 */
+	public long getDroppedTicks() {
+		return droppedTicks;
+	}
+}
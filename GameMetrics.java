@@ -0,0 +1,203 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Measures a game as it is played: how long its ticks, drops, rotations,
+ * line clears and repaints take, and how many pieces and rows it goes
+ * through. A Game given a GameMetrics (see Game.setMetrics) records into it.
+ *
+ * Recording costs two System.nanoTime calls and a few atomic increments, a
+ * few tens of nanoseconds, without locks or allocation, so the metrics can
+ * stay on. They can be read from any thread, and through JMX once
+ * registered. The rates are sampled by the game thread, over windows of
+ * WINDOW_NANOS, so reading them changes nothing.
+ *
+ * @author MO-Productions
+ */
+public class GameMetrics implements GameMetricsMXBean {
+
+	public static final String OBJECT_NAME = "tetris:type=GameMetrics";
+
+	private LatencyHistogram tick = new LatencyHistogram();
+
+	private LatencyHistogram drop = new LatencyHistogram();
+
+	private LatencyHistogram rotate = new LatencyHistogram();
+
+	private LatencyHistogram lineClear = new LatencyHistogram();
+
+	private LatencyHistogram repaint = new LatencyHistogram();
+
+	private LongAdder pieces = new LongAdder();
+
+	private LongAdder lines = new LongAdder();
+
+	// length of the window the rates are measured over
+	public static final long WINDOW_NANOS = 1000000000L;
+
+	// start of the current window, and the counts then: of the game thread
+	private long windowNanos = System.nanoTime(), windowPieces, windowLines;
+
+	// rates over the last window
+	private volatile double piecesPerSecond, linesPerSecond;
+
+	/**
+	 * Registers these metrics with the platform MBean server, under
+	 * OBJECT_NAME
+	 *
+	 * @throws JMException
+	 *             if they cannot be registered, e.g. other metrics already are
+	 */
+	public void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName(OBJECT_NAME));
+	}
+
+	/**
+	 * Removes these metrics from the platform MBean server
+	 *
+	 * @throws JMException
+	 *             if they are not registered
+	 */
+	public void unregister() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+				new ObjectName(OBJECT_NAME));
+	}
+
+	/**
+	 * Returns the latencies of Game.tick
+	 */
+	public LatencyHistogram getTickHistogram() {
+		return tick;
+	}
+
+	/**
+	 * Returns the latencies of a drop, through Game.movePiece
+	 */
+	public LatencyHistogram getDropHistogram() {
+		return drop;
+	}
+
+	/**
+	 * Returns the latencies of Game.rotatePiece
+	 */
+	public LatencyHistogram getRotateHistogram() {
+		return rotate;
+	}
+
+	/**
+	 * Returns the latencies of Grid.checkRows when it removes rows
+	 */
+	public LatencyHistogram getLineClearHistogram() {
+		return lineClear;
+	}
+
+	/**
+	 * Returns the latencies of painting the game
+	 */
+	public LatencyHistogram getRepaintHistogram() {
+		return repaint;
+	}
+
+	/**
+	 * Counts pieces locked
+	 *
+	 * @param n
+	 *            the number of pieces
+	 */
+	public void addPieces(int n) {
+		pieces.add(n);
+	}
+
+	/**
+	 * Counts rows removed
+	 *
+	 * @param n
+	 *            the number of rows
+	 */
+	public void addLines(int n) {
+		lines.add(n);
+	}
+
+	public LatencySummary getTick() {
+		return new LatencySummary(tick);
+	}
+
+	public LatencySummary getDrop() {
+		return new LatencySummary(drop);
+	}
+
+	public LatencySummary getRotate() {
+		return new LatencySummary(rotate);
+	}
+
+	public LatencySummary getLineClear() {
+		return new LatencySummary(lineClear);
+	}
+
+	public LatencySummary getRepaint() {
+		return new LatencySummary(repaint);
+	}
+
+	public long getPieces() {
+		return pieces.sum();
+	}
+
+	public long getLines() {
+		return lines.sum();
+	}
+
+	/**
+	 * Measures the rates over the current window if it is over, and starts
+	 * the next one. Called by the game thread, after each tick.
+	 *
+	 * @param now
+	 *            the time, as given by System.nanoTime
+	 */
+	public void sample(long now) {
+		long nanos = now - windowNanos;
+		if (nanos < WINDOW_NANOS) {
+			return;
+		}
+		long piecesNow = pieces.sum();
+		long linesNow = lines.sum();
+		piecesPerSecond = rate(piecesNow - windowPieces, nanos);
+		linesPerSecond = rate(linesNow - windowLines, nanos);
+		windowNanos = now;
+		windowPieces = piecesNow;
+		windowLines = linesNow;
+	}
+
+	public double getPiecesPerSecond() {
+		return piecesPerSecond;
+	}
+
+	public double getLinesPerSecond() {
+		return linesPerSecond;
+	}
+
+	/*
+	 * Returns the number per second of count in the given nanoseconds
+	 */
+	private static double rate(long count, long nanos) {
+		return nanos <= 0 ? 0 : count * 1e9 / nanos;
+	}
+
+	public void reset() {
+		tick.reset();
+		drop.reset();
+		rotate.reset();
+		lineClear.reset();
+		repaint.reset();
+	}
+
+	public String toString() {
+		return "tick " + getTick() + "\ndrop " + getDrop() + "\nrotate "
+				+ getRotate() + "\nline clear " + getLineClear()
+				+ "\nrepaint " + getRepaint() + "\n" + getPieces()
+				+ " pieces, " + getLines() + " lines";
+	}
+}
@@ -0,0 +1,60 @@
+/**
+ * The metrics of a GameMetrics as seen through JMX, e.g. in JConsole under
+ * GameMetrics.OBJECT_NAME. Each latency is a composite of the count, mean,
+ * median, 99th percentile and maximum, in nanoseconds.
+ *
+ * @author MO-Productions
+ */
+public interface GameMetricsMXBean {
+	/**
+	 * Returns the latency of Game.tick
+	 */
+	public LatencySummary getTick();
+
+	/**
+	 * Returns the latency of a drop, through Game.movePiece
+	 */
+	public LatencySummary getDrop();
+
+	/**
+	 * Returns the latency of Game.rotatePiece
+	 */
+	public LatencySummary getRotate();
+
+	/**
+	 * Returns the latency of Grid.checkRows when it removes rows
+	 */
+	public LatencySummary getLineClear();
+
+	/**
+	 * Returns the latency of painting the game
+	 */
+	public LatencySummary getRepaint();
+
+	/**
+	 * Returns the number of pieces locked
+	 */
+	public long getPieces();
+
+	/**
+	 * Returns the number of rows removed
+	 */
+	public long getLines();
+
+	/**
+	 * Returns the pieces locked per second over the last sampling window, 0
+	 * until one is over. Pieces gives the count to measure over any other.
+	 */
+	public double getPiecesPerSecond();
+
+	/**
+	 * Returns the rows removed per second over the last sampling window, 0
+	 * until one is over. Lines gives the count to measure over any other.
+	 */
+	public double getLinesPerSecond();
+
+	/**
+	 * Forgets the latencies counted so far
+	 */
+	public void reset();
+}
@@ -0,0 +1,217 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws a Game from cached images rather than square by square.
+ * 
+ * The parts that never change, the edges of the grid and its empty squares,
+ * are drawn once into a background image. Each color of square is drawn once
+ * into a sprite atlas, one square per color side by side. A frame is then the
+ * background copied over the area being repainted, and one sprite copied for
+ * each occupied square of the grid and each square of the piece in that area.
+ * 
+ * The images are compatible with the screen drawn on, so that they can be
+ * kept and copied by the graphics hardware.
+ * 
+ * @author MO-Productions
+ */
+public class GameRenderer {
+	// pixel position and size of the background: the grid and its edges
+	private static final int BACKGROUND_X = Grid.LEFT - Grid.BORDER;
+
+	private static final int BACKGROUND_Y = Grid.TOP;
+
+	private static final int BACKGROUND_WIDTH = Grid.WIDTH * Square.WIDTH + 2
+			* Grid.BORDER;
+
+	private static final int BACKGROUND_HEIGHT = Grid.HEIGHT * Square.HEIGHT
+			+ Grid.BORDER;
+
+	// a sprite is a square with its black border one pixel over its size
+	private static final int SPRITE_WIDTH = Square.WIDTH + 1;
+
+	private static final int SPRITE_HEIGHT = Square.HEIGHT + 1;
+
+	private GraphicsConfiguration configuration; // the images are made for
+
+	private BufferedImage background; // edges and empty squares
+
+	private BufferedImage atlas; // one sprite per color
+
+	private Color[] colors; // colors[i]: color of the i-th sprite
+
+	private int colorCount; // number of sprites in the atlas
+
+	private Rectangle clip; // the area being drawn, reused by every draw
+
+	/**
+	 * Creates a renderer. The images are made on the first draw.
+	 */
+	public GameRenderer() {
+		colors = new Color[16];
+		clip = new Rectangle();
+	}
+
+	/**
+	 * Draws the grid and the piece of the game on the given Graphics context
+	 * 
+	 * @param g
+	 *            the Graphics context on which to draw
+	 * @param game
+	 *            the game to draw
+	 */
+	public void draw(Graphics g, Game game) {
+		draw(g, new GameSnapshot(game), 0);
+	}
+
+	/**
+	 * Draws the grid and the piece of a snapshot of the game on the given
+	 * Graphics context, with the piece lower than its squares, e.g. as it
+	 * falls between rows
+	 * 
+	 * @param g
+	 *            the Graphics context on which to draw
+	 * @param game
+	 *            the snapshot of the game to draw
+	 * @param pieceOffset
+	 *            number of pixels the piece is drawn lower, from 0 to
+	 *            Square.HEIGHT
+	 */
+	public void draw(Graphics g, GameSnapshot game, int pieceOffset) {
+		prepare(g);
+		g.drawImage(background, BACKGROUND_X, BACKGROUND_Y, null);
+
+		// Without a clip, getClipBounds leaves clip as set here
+		clip.setBounds(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		g.getClipBounds(clip);
+		int top = Math.max(0, Math.floorDiv(clip.y - 1 - Grid.TOP,
+				Square.HEIGHT));
+		int bottom = Math.min(Grid.HEIGHT - 1, Math.floorDiv(clip.y
+				+ clip.height - Grid.TOP, Square.HEIGHT));
+		int left = Math.max(0, Math.floorDiv(clip.x - 1 - Grid.LEFT,
+				Square.WIDTH));
+		int right = Math.min(Grid.WIDTH - 1, Math.floorDiv(clip.x + clip.width
+				- Grid.LEFT, Square.WIDTH));
+
+		for (int r = top; r <= bottom; r++) {
+			// the columns of the area that are occupied on this row
+			int row = game.getRow(r) & (Grid.FULL_ROW >>> (Grid.WIDTH - 1 - right))
+					& (Grid.FULL_ROW << left);
+			while (row != 0) {
+				int c = Integer.numberOfTrailingZeros(row);
+				drawSprite(g, r, c, 0, sprite(game.getColor(r, c)));
+				row &= row - 1;
+			}
+		}
+
+		if (game.getSquareCount() > 0) {
+			int sprite = sprite(game.getPieceColor());
+			for (int i = 0; i < game.getSquareCount(); i++) {
+				drawSprite(g, game.getSquareRow(i), game.getSquareCol(i),
+						pieceOffset, sprite);
+			}
+		}
+	}
+
+	/*
+	 * Copies the given sprite of the atlas to the square at (row, col), offset
+	 * pixels lower
+	 */
+	private void drawSprite(Graphics g, int row, int col, int offset,
+			int sprite) {
+		int x = Grid.LEFT + col * Square.WIDTH;
+		int y = Grid.TOP + row * Square.HEIGHT + offset;
+		int sx = sprite * SPRITE_WIDTH;
+		g.drawImage(atlas, x, y, x + SPRITE_WIDTH, y + SPRITE_HEIGHT, sx, 0, sx
+				+ SPRITE_WIDTH, SPRITE_HEIGHT, null);
+	}
+
+	/*
+	 * Makes the background and the atlas for the screen of the given Graphics
+	 * context, unless they already are
+	 */
+	private void prepare(Graphics g) {
+		GraphicsConfiguration gc = null;
+		if (g instanceof Graphics2D) {
+			gc = ((Graphics2D) g).getDeviceConfiguration();
+		}
+		if (background != null && gc == configuration) {
+			return;
+		}
+		configuration = gc;
+
+		background = createImage(BACKGROUND_WIDTH, BACKGROUND_HEIGHT);
+		Graphics2D bg = background.createGraphics();
+		bg.translate(-BACKGROUND_X, -BACKGROUND_Y);
+		Grid.drawEdges(bg);
+		for (int r = 0; r < Grid.HEIGHT; r++) {
+			for (int c = 0; c < Grid.WIDTH; c++) {
+				Square.draw(bg, r, c, Grid.EMPTY);
+			}
+		}
+		bg.dispose();
+
+		// the sprites are drawn again for the new screen
+		atlas = createImage(colors.length * SPRITE_WIDTH, SPRITE_HEIGHT);
+		for (int i = 0; i < colorCount; i++) {
+			drawSprite(i);
+		}
+	}
+
+	/*
+	 * Returns the index of the sprite of the given color, adding the sprite to
+	 * the atlas if there is none yet
+	 */
+	private int sprite(Color color) {
+		for (int i = 0; i < colorCount; i++) {
+			if (colors[i] == color) {
+				return i;
+			}
+		}
+		for (int i = 0; i < colorCount; i++) {
+			if (colors[i].equals(color)) {
+				return i;
+			}
+		}
+		if (colorCount == colors.length) {
+			// a larger atlas, with the sprites drawn so far
+			Color[] larger = new Color[colors.length * 2];
+			System.arraycopy(colors, 0, larger, 0, colorCount);
+			colors = larger;
+			BufferedImage old = atlas;
+			atlas = createImage(colors.length * SPRITE_WIDTH, SPRITE_HEIGHT);
+			Graphics2D g = atlas.createGraphics();
+			g.drawImage(old, 0, 0, null);
+			g.dispose();
+		}
+		colors[colorCount] = color;
+		drawSprite(colorCount);
+		return colorCount++;
+	}
+
+	/*
+	 * Draws the i-th sprite of the atlas
+	 */
+	private void drawSprite(int i) {
+		Graphics2D g = atlas.createGraphics();
+		g.translate(i * SPRITE_WIDTH - Grid.LEFT, -Grid.TOP);
+		Square.draw(g, 0, 0, colors[i]);
+		g.dispose();
+	}
+
+	/*
+	 * Creates an opaque image for the screen drawn on
+	 */
+	private BufferedImage createImage(int width, int height) {
+		if (configuration != null) {
+			return configuration.createCompatibleImage(width, height,
+					Transparency.OPAQUE);
+		}
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+}
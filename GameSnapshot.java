@@ -0,0 +1,231 @@
+import java.awt.Color;
+
+/**
+ * A copy of the state of a Game at one moment: the squares of the grid, the
+ * piece and the counters, enough to draw the game.
+ *
+ * A snapshot is filled by the thread playing the game, then handed to the
+ * thread drawing it (see SnapshotBuffer), which only reads it. The drawing
+ * thread never sees the game itself, so it needs no lock and never sees a
+ * move half done.
+ *
+ * @author MO-Productions
+ */
+public class GameSnapshot {
+
+	private int[] rows; // occupancy bitmask of each row, as in Grid
+
+	private byte[] cells; // palette index of each square, as in Grid
+
+	private Color[] palette; // colors of the grid, EMPTY first
+
+	private int paletteSize; // number of colors copied to palette
+
+	private int[] squares; // row then column of each square of the piece
+
+	private int squareCount; // number of squares of the piece, 0 if none
+
+	private Color pieceColor; // color of the piece, or null if none
+
+	private int pieceType; // type of the piece, -1 if none
+
+	private int dropDistance; // rows the piece can still fall
+
+	private double fall; // part of a row the piece has fallen
+
+	private double gravity; // rows per tick the piece falls
+
+	private boolean gameOver;
+
+	private long ticks;
+
+	private int pieces;
+
+	private int lines;
+
+	// true once handed to the drawing thread, see SnapshotBuffer
+	boolean consumed;
+
+	/**
+	 * Creates the snapshot of an empty grid, without a piece
+	 */
+	public GameSnapshot() {
+		rows = new int[Grid.HEIGHT];
+		cells = new byte[Grid.HEIGHT * Grid.WIDTH];
+		palette = new Color[Byte.MAX_VALUE + 1];
+		palette[0] = Grid.EMPTY;
+		paletteSize = 1;
+		squares = new int[8];
+	}
+
+	/**
+	 * Creates the snapshot of the given game
+	 *
+	 * @param game
+	 *            the game to copy
+	 */
+	public GameSnapshot(Game game) {
+		this();
+		copy(game);
+	}
+
+	/**
+	 * Copies the state of the given game into this snapshot. Does not allocate
+	 * once the snapshot has copied a game with the same colors and piece size.
+	 *
+	 * @param game
+	 *            the game to copy
+	 */
+	void copy(Game game) {
+		Grid grid = game.getGrid();
+		grid.copyRows(rows);
+		grid.copyCells(cells);
+		// the palette of a grid only grows: copy the colors added since
+		if (grid.getPaletteSize() < paletteSize) {
+			paletteSize = 0;
+		}
+		for (; paletteSize < grid.getPaletteSize(); paletteSize++) {
+			palette[paletteSize] = grid.getPaletteColor(paletteSize);
+		}
+
+		AbstractPiece piece = game.getPiece();
+		if (piece == null) {
+			squareCount = 0;
+			pieceColor = null;
+			pieceType = -1;
+			dropDistance = 0;
+		} else {
+			squareCount = piece.getSquareCount();
+			if (squares.length < 2 * squareCount) {
+				squares = new int[2 * squareCount];
+			}
+			for (int i = 0; i < squareCount; i++) {
+				squares[2 * i] = piece.getSquareRow(i);
+				squares[2 * i + 1] = piece.getSquareCol(i);
+			}
+			pieceColor = piece.getColor();
+			pieceType = game.getPieceType();
+			dropDistance = piece.getDropDistance();
+		}
+		fall = game.getFall();
+		gravity = game.getGravity();
+		gameOver = game.isGameOver();
+		ticks = game.getTicks();
+		pieces = game.getPieces();
+		lines = game.getLines();
+	}
+
+	/**
+	 * Returns the occupancy bitmask of the given row (bit c is set if column c
+	 * is occupied)
+	 *
+	 * @param row
+	 *            the row in the grid
+	 */
+	public int getRow(int row) {
+		return rows[row];
+	}
+
+	/**
+	 * Returns the color of the square of the grid at the given location
+	 *
+	 * @param row
+	 *            the row of the square in the grid
+	 * @param col
+	 *            the column of the square in the grid
+	 */
+	public Color getColor(int row, int col) {
+		return palette[cells[row * Grid.WIDTH + col]];
+	}
+
+	/**
+	 * Returns the number of squares of the piece, or 0 if there is no piece
+	 */
+	public int getSquareCount() {
+		return squareCount;
+	}
+
+	/**
+	 * Returns the row of the i-th square of the piece
+	 *
+	 * @param i
+	 *            the index of the square, from 0 to getSquareCount() - 1
+	 */
+	public int getSquareRow(int i) {
+		return squares[2 * i];
+	}
+
+	/**
+	 * Returns the column of the i-th square of the piece
+	 *
+	 * @param i
+	 *            the index of the square, from 0 to getSquareCount() - 1
+	 */
+	public int getSquareCol(int i) {
+		return squares[2 * i + 1];
+	}
+
+	/**
+	 * Returns the color of the piece, or null if there is no piece
+	 */
+	public Color getPieceColor() {
+		return pieceColor;
+	}
+
+	/**
+	 * Returns the type of the piece (see Game.createPiece), or -1 if there is
+	 * no piece
+	 */
+	public int getPieceType() {
+		return pieceType;
+	}
+
+	/**
+	 * Returns the number of rows the piece can still fall
+	 */
+	public int getDropDistance() {
+		return dropDistance;
+	}
+
+	/**
+	 * Returns the part of a row the piece has fallen, see Game.getFall
+	 */
+	public double getFall() {
+		return fall;
+	}
+
+	/**
+	 * Returns the number of rows the piece falls each tick
+	 */
+	public double getGravity() {
+		return gravity;
+	}
+
+	/**
+	 * Returns true if the game was over
+	 */
+	public boolean isGameOver() {
+		return gameOver;
+	}
+
+	/**
+	 * Returns the number of ticks played
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Returns the number of pieces locked in the grid
+	 */
+	public int getPieces() {
+		return pieces;
+	}
+
+	/**
+	 * Returns the number of rows removed
+	 */
+	public int getLines() {
+		return lines;
+	}
+}
@@ -0,0 +1,89 @@
+import java.awt.Color;
+
+/**
+ * The state of a Game saved by Game.save, to be put back by Game.restore:
+ * the squares of the grid, the piece, the generator and the counters. A Grid
+ * can be saved and restored alone the same way.
+ *
+ * A state takes a few hundred bytes: the row bitmasks (80 bytes), the palette
+ * index of each square (200 bytes), and a few numbers. It is made once and
+ * saved into again and again: saving and restoring copy arrays the size of
+ * the grid and allocate nothing, so a computer player can try thousands of
+ * moves a second and go back, and a player can undo.
+ *
+ * @author MO-Productions
+ */
+public class GameState {
+
+	// the grid
+	int[] rows;
+
+	byte[] cells;
+
+	Color[] palette; // the first paletteSize colors of the palette
+
+	int paletteSize;
+
+	long hash;
+
+	int touchedTop, touchedBottom;
+
+	boolean hasGrid; // has a grid been saved?
+
+	// the game
+	boolean hasGame; // has a game been saved?
+
+	boolean hasPiece;
+
+	int pieceType;
+
+	int orientation;
+
+	int pieceRow, pieceCol; // the center square of the piece
+
+	boolean isOver;
+
+	int pieces, lines, moves;
+
+	long ticks;
+
+	int gravity, fall;
+
+	int lockBottom;
+
+	// the generator
+	Class<?> generator; // class of the generator saved, or null
+
+	long random; // state of the random sequence
+
+	int[] queue; // the upcoming pieces
+
+	int head, count;
+
+	int[] bag; // the pieces of the bag of a BagGenerator
+
+	int left;
+
+	/**
+	 * Creates an empty state, to save a game or a grid into
+	 */
+	public GameState() {
+		rows = new int[Grid.HEIGHT];
+		cells = new byte[Grid.HEIGHT * Grid.WIDTH];
+		palette = new Color[Byte.MAX_VALUE];
+	}
+
+	/**
+	 * Returns the number of pieces locked in the grid of the game saved
+	 */
+	public int getPieces() {
+		return pieces;
+	}
+
+	/**
+	 * Returns the number of ticks played in the game saved
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+}
@@ -1,5 +1,6 @@
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 
 /**
  * This is the Tetris board represented by a (HEIGHT - by - WIDTH) matrix of
@@ -15,17 +16,47 @@ import java.awt.Graphics;
  * spot is occupied (i.e. a piece cannot move over/to an occupied square). A
  * grid will also remove completely full rows.
  * 
+ * Occupancy is kept as a bitboard: one int per row where bit c is set if
+ * column c is occupied. The colors are kept separately as one byte per square,
+ * an index into the palette of colors used on this grid.
+ * 
  * @author CSC 143
  */
 public class Grid {
-	private Square[][] board;
+	private int[] rows; // occupancy bitmask of each row
+
+	private byte[] cells; // palette index of each square, row by row
+
+	private Color[] palette; // colors used on this grid, EMPTY first
+
+	private int paletteSize; // number of colors in use in the palette
+
+	// rows changed since the last call to checkRows: only these can be full
+	private int touchedTop, touchedBottom;
+
+	private long hash; // Zobrist hash of the occupied squares
+
+	// row of the highest occupied square of each column, HEIGHT if none
+	private int[] tops;
+
+	private int clearedRows; // rows removed by the last call to checkRows
+
+	private long garbageRows; // garbage rows pushed in so far
+
+	private Rectangle clip; // the area being drawn, reused by every draw
 
 	// Width and Height of Grid in number of squares
 	public static final int HEIGHT = 20;
 
+	// getClearedRows and removeRows hold a row per bit of an int
+	static {
+		if (HEIGHT > Integer.SIZE - 1)
+			throw new AssertionError("Invalid height = " + HEIGHT);
+	}
+
 	public static final int WIDTH = 10;
 
-	private static final int BORDER = 5;
+	public static final int BORDER = 5; // pixel width of the edges
 
 	public static final int LEFT = 100; // pixel position of left of grid
 
@@ -33,20 +64,37 @@ public class Grid {
 
 	public static final Color EMPTY = Color.WHITE;
 
+	// bitmask of a row where every column is occupied
+	public static final int FULL_ROW = (1 << WIDTH) - 1;
+
+	// bitmask standing for any column outside of the grid
+	private static final int OUTSIDE = 1 << 31;
+
+	// colors of the pieces, so that a new grid rarely has to grow its palette
+	private static final Color[] PIECE_COLORS = { EMPTY, Color.MAGENTA,
+			Color.BLUE, Color.RED, Color.GREEN, Color.CYAN, Color.YELLOW,
+			Color.GRAY };
+
 	/**
 	 * Creates the grid
 	 */
 	public Grid() {
-		board = new Square[HEIGHT][WIDTH];
+		rows = new int[HEIGHT];
+		cells = new byte[HEIGHT * WIDTH];
 
-		// put squares in the board
-		for (int row = 0; row < HEIGHT; row++) {
-			for (int col = 0; col < WIDTH; col++) {
-				board[row][col] = new Square(this, row, col, EMPTY, false);
+		// every square starts as EMPTY, which is palette index 0
+		palette = PIECE_COLORS.clone();
+		paletteSize = palette.length;
 
-			}
-		}
+		touchedTop = HEIGHT;
+		touchedBottom = -1;
+
+		clip = new Rectangle();
 
+		tops = new int[WIDTH];
+		for (int col = 0; col < WIDTH; col++) {
+			tops[col] = HEIGHT;
+		}
 	}
 
 	/**
@@ -58,7 +106,187 @@ public class Grid {
 	 *            the column in the grid
 	 */
 	public boolean isSet(int row, int col) {
-		return !board[row][col].getColor().equals(EMPTY);
+		return (rows[row] & (1 << col)) != 0;
+	}
+
+	/**
+	 * Returns the bitmask for the given column: bit col for a column of the
+	 * grid, a bit outside of FULL_ROW for any column outside of the grid
+	 * 
+	 * @param col
+	 *            the column in the grid
+	 */
+	public static int mask(int col) {
+		if (col < 0 || col >= WIDTH) {
+			return OUTSIDE;
+		}
+		return 1 << col;
+	}
+
+	/**
+	 * Returns true if none of the columns in mask are occupied on the given
+	 * row. Rows and columns outside of the grid are never free.
+	 * 
+	 * @param row
+	 *            the row in the grid
+	 * @param mask
+	 *            the columns to test, as built by mask(col)
+	 */
+	public boolean isFree(int row, int mask) {
+		return row >= 0 && row < HEIGHT && (mask & ~FULL_ROW) == 0
+				&& (rows[row] & mask) == 0;
+	}
+
+	/**
+	 * Returns the occupancy bitmask of the given row (bit c is set if column c
+	 * is occupied)
+	 * 
+	 * @param row
+	 *            the row in the grid
+	 */
+	public int getRow(int row) {
+		return rows[row];
+	}
+
+	/**
+	 * Copies the occupancy bitmasks of all the rows into the given array, top
+	 * row first
+	 * 
+	 * @param dest
+	 *            an array of at least HEIGHT ints
+	 */
+	public void copyRows(int[] dest) {
+		System.arraycopy(rows, 0, dest, 0, HEIGHT);
+	}
+
+	/**
+	 * Returns true if every column of the given row is occupied
+	 * 
+	 * @param row
+	 *            the row in the grid
+	 */
+	public boolean isRowFull(int row) {
+		return rows[row] == FULL_ROW;
+	}
+
+	/**
+	 * Returns the color of the Square at the given location
+	 * 
+	 * @param row
+	 *            the row of the Square in the Grid
+	 * @param col
+	 *            the column of the Square in the Grid
+	 */
+	public Color getColor(int row, int col) {
+		return palette[cells[row * WIDTH + col]];
+	}
+
+	/**
+	 * Copies the palette index of every square into the given array, row by
+	 * row from the top row
+	 * 
+	 * @param dest
+	 *            an array of at least HEIGHT * WIDTH bytes
+	 */
+	public void copyCells(byte[] dest) {
+		System.arraycopy(cells, 0, dest, 0, HEIGHT * WIDTH);
+	}
+
+	/**
+	 * Returns the number of colors in the palette of this grid. The palette
+	 * only grows: a color keeps its index for the life of the grid.
+	 */
+	public int getPaletteSize() {
+		return paletteSize;
+	}
+
+	/**
+	 * Returns the color at the given index of the palette
+	 * 
+	 * @param index
+	 *            the palette index, from 0 (EMPTY) to getPaletteSize() - 1
+	 */
+	public Color getPaletteColor(int index) {
+		return palette[index];
+	}
+
+	/**
+	 * Saves the squares of this grid into the given state
+	 * 
+	 * @param state
+	 *            the state to save into, see restore
+	 */
+	public void save(GameState state) {
+		System.arraycopy(rows, 0, state.rows, 0, HEIGHT);
+		System.arraycopy(cells, 0, state.cells, 0, HEIGHT * WIDTH);
+		// the palette only grows: copy the colors added since the last save,
+		// or all of them if the state was saved from another grid
+		int same = 0;
+		while (same < state.paletteSize && same < paletteSize
+				&& state.palette[same] == palette[same]) {
+			same++;
+		}
+		System.arraycopy(palette, same, state.palette, same, paletteSize
+				- same);
+		state.paletteSize = paletteSize;
+		state.hash = hash;
+		state.touchedTop = touchedTop;
+		state.touchedBottom = touchedBottom;
+		state.hasGrid = true;
+	}
+
+	/**
+	 * Puts the squares of this grid back as saved in the given state, e.g. by
+	 * this grid earlier. Takes time in the number of rows, or in the number
+	 * of squares for a state saved by a grid of other colors.
+	 * 
+	 * @param state
+	 *            the state saved by save
+	 * @throws IllegalArgumentException
+	 *             if no grid was saved in state
+	 */
+	public void restore(GameState state) {
+		if (!state.hasGrid) {
+			throw new IllegalArgumentException("No grid saved");
+		}
+		System.arraycopy(state.rows, 0, rows, 0, HEIGHT);
+		System.arraycopy(state.cells, 0, cells, 0, HEIGHT * WIDTH);
+		// the palette of this grid, if it starts with the colors saved, still
+		// gives each square its color
+		boolean same = state.paletteSize <= paletteSize;
+		for (int i = 0; same && i < state.paletteSize; i++) {
+			same = state.palette[i] == palette[i];
+		}
+		if (!same) {
+			// else the squares take the indexes of their colors in this
+			// palette, adding the missing ones: a color never changes index
+			byte[] index = new byte[state.paletteSize];
+			for (int i = 0; i < state.paletteSize; i++) {
+				index[i] = (byte) paletteIndex(state.palette[i]);
+			}
+			for (int i = 0; i < HEIGHT * WIDTH; i++) {
+				cells[i] = index[cells[i]];
+			}
+		}
+		hash = state.hash;
+		touchedTop = state.touchedTop;
+		touchedBottom = state.touchedBottom;
+
+		// the highest row of each column is the first one occupying it
+		int seen = 0;
+		for (int row = 0; row < HEIGHT; row++) {
+			int top = rows[row] & ~seen;
+			while (top != 0) {
+				tops[Integer.numberOfTrailingZeros(top)] = row;
+				top &= top - 1;
+			}
+			seen |= rows[row];
+		}
+		for (int col = 0; col < WIDTH; col++) {
+			if ((seen & (1 << col)) == 0) {
+				tops[col] = HEIGHT;
+			}
+		}
 	}
 
 	/**
@@ -74,7 +302,111 @@ public class Grid {
 	 *             if row < 0 || row>= HEIGHT || col < 0 || col >= WIDTH
 	 */
 	public void set(int row, int col, Color c) {
-		board[row][col].setColor(c);
+		if (col < 0 || col >= WIDTH) {
+			throw new IndexOutOfBoundsException("Invalid column = " + col);
+		}
+		int index = paletteIndex(c);
+		cells[row * WIDTH + col] = (byte) index;
+		int old = rows[row];
+		if (index == 0) {
+			rows[row] &= ~(1 << col);
+		} else {
+			rows[row] |= 1 << col;
+		}
+		if (rows[row] != old) {
+			hash ^= Zobrist.key(row, col);
+			if (index != 0 && row < tops[col]) {
+				tops[col] = row;
+			} else if (index == 0 && row == tops[col]) {
+				// the top square of the column is gone: look further down
+				int r = row + 1;
+				while (r < HEIGHT && (rows[r] & (1 << col)) == 0) {
+					r++;
+				}
+				tops[col] = r;
+			}
+		}
+		touch(row);
+	}
+
+	/**
+	 * Returns the row of the highest occupied square of a column, or HEIGHT if
+	 * the column is empty. The height of the column is HEIGHT minus this row.
+	 * 
+	 * @param col
+	 *            the column in the grid
+	 */
+	public int getColumnTop(int col) {
+		return tops[col];
+	}
+
+	/*
+	 * Finds the highest occupied square of every column again, after rows
+	 * have moved
+	 */
+	private void updateTops() {
+		int seen = 0; // columns with an occupied square above this row
+		for (int row = 0; row < HEIGHT && seen != FULL_ROW; row++) {
+			int top = rows[row] & ~seen;
+			while (top != 0) {
+				tops[Integer.numberOfTrailingZeros(top)] = row;
+				top &= top - 1;
+			}
+			seen |= rows[row];
+		}
+		for (int col = 0; col < WIDTH; col++) {
+			if ((seen & (1 << col)) == 0) {
+				tops[col] = HEIGHT;
+			}
+		}
+	}
+
+	/**
+	 * Returns the Zobrist hash of the occupied squares of this grid. Two grids
+	 * with the same squares occupied have the same hash, whatever their colors.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/*
+	 * Records that the given row changed, so that checkRows looks at it
+	 */
+	private void touch(int row) {
+		if (row < touchedTop) {
+			touchedTop = row;
+		}
+		if (row > touchedBottom) {
+			touchedBottom = row;
+		}
+	}
+
+	/*
+	 * Returns the palette index of the given color, adding it to the palette
+	 * if this grid has not used it yet
+	 */
+	private int paletteIndex(Color c) {
+		// most lookups are for the piece colors: compare references first
+		for (int i = 0; i < paletteSize; i++) {
+			if (palette[i] == c) {
+				return i;
+			}
+		}
+		for (int i = 0; i < paletteSize; i++) {
+			if (palette[i].equals(c)) {
+				return i;
+			}
+		}
+		if (paletteSize == Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many colors on the grid");
+		}
+		if (paletteSize == palette.length) {
+			Color[] larger = new Color[palette.length * 2];
+			System.arraycopy(palette, 0, larger, 0, paletteSize);
+			palette = larger;
+		}
+		palette[paletteSize] = c;
+		return paletteSize++;
 	}
 
 	/**
@@ -82,41 +414,132 @@ public class Grid {
 	 * 
 	 * If a solid row is found and removed, all rows above it are moved down and
 	 * the top row set to empty
+	 * 
+	 * Only the rows changed since the last call can have become solid (usually
+	 * the rows of the piece that just locked), so only those are tested. All
+	 * the solid rows are then removed in a single pass from the bottom up, each
+	 * row kept being copied to the lowest row not yet written.
+	 * 
+	 * @return the number of rows removed
 	 */
-	
-	public void checkRows() {
-		// Begins by starting at the bottom and iterating up
-		// through the rows by decrementing the counter
-		for (int row = HEIGHT - 1; row >=0; row--) {
-			boolean rowSolid = true;
-			// Iterate through columns (starting from left
-			// to right, if any are filled, row is not solid
-			// If row is NOT solid, move on to next row
-			for (int col = 0; col < WIDTH; col++) {
-				if(!isSet(row, col)){
-					rowSolid = false;
-					break;
+	public int checkRows() {
+		int top = touchedTop;
+		int bottom = touchedBottom;
+		touchedTop = HEIGHT;
+		touchedBottom = -1;
+		clearedRows = 0;
+
+		// the rows below the lowest solid row stay where they are
+		int row = bottom;
+		while (row >= top && rows[row] != FULL_ROW) {
+			row--;
+		}
+		if (row < top) {
+			return 0;
+		}
+
+		// copy every row that stays to the next row written, updating the hash
+		// for the squares removed and moved, from the lowest solid row up
+		int to = row;
+		for (; row >= 0; row--) {
+			if (row >= top && rows[row] == FULL_ROW) {
+				hash ^= Zobrist.hashRow(row, rows[row]);
+				clearedRows |= 1 << row;
+			} else {
+				if (rows[row] != 0) {
+					hash ^= Zobrist.hashRow(row, rows[row])
+							^ Zobrist.hashRow(to, rows[row]);
 				}
+				rows[to] = rows[row];
+				System.arraycopy(cells, row * WIDTH, cells, to * WIDTH, WIDTH);
+				to--;
 			}
-			if (rowSolid){
-				for(int upperRow = row-1; upperRow >= 0; upperRow--){
-					moveRowDown(upperRow);
-				}			
-				clearRow(0);
-				//row = HEIGHT - 1;
-				row ++;
+		}
+		// and empty the rows left at the top, whose squares have moved down
+		for (row = 0; row <= to; row++) {
+			emptyRow(row);
+		}
+		updateTops();
+		return to + 1;
+	}
+
+	/**
+	 * Returns the rows removed by the last call to checkRows, as a bitmask
+	 * where bit r is set if row r (numbered as before the call) was removed.
+	 * Being an int, it can only stand for a grid of up to 31 rows.
+	 */
+	public int getClearedRows() {
+		return clearedRows;
+	}
+
+	/**
+	 * Returns the number of garbage rows pushed in by addGarbage so far
+	 */
+	public long getGarbageRows() {
+		return garbageRows;
+	}
+
+	/**
+	 * Removes the given rows, full or not: every row above them moves down by
+	 * the number of rows removed below it, and empty rows come in at the top.
+	 * Like getClearedRows, it only works on a grid of up to 31 rows.
+	 * 
+	 * @param mask
+	 *            the rows to remove, bit r set to remove row r
+	 * @return the number of rows removed
+	 */
+	public int removeRows(int mask) {
+		mask &= (1 << HEIGHT) - 1;
+		if (mask == 0) {
+			return 0;
+		}
+
+		// copy every row that stays to its final place, updating the hash for
+		// the squares removed and moved, from the lowest row removed up
+		int cleared = 0;
+		int lowest = 31 - Integer.numberOfLeadingZeros(mask);
+		for (int row = lowest; row >= 0; row--) {
+			if ((mask & (1 << row)) != 0) {
+				hash ^= Zobrist.hashRow(row, rows[row]);
+				cleared++;
+			} else {
+				if (rows[row] != 0) {
+					hash ^= Zobrist.hashRow(row, rows[row])
+							^ Zobrist.hashRow(row + cleared, rows[row]);
+				}
+				rows[row + cleared] = rows[row];
+				System.arraycopy(cells, row * WIDTH, cells, (row + cleared)
+						* WIDTH, WIDTH);
 			}
 		}
+		// and empty the rows left at the top, whose squares have moved down
+		for (int row = 0; row < cleared; row++) {
+			emptyRow(row);
+		}
+		// rows still to check may have moved down
+		if (touchedTop <= touchedBottom) {
+			touchedBottom = HEIGHT - 1;
+		}
+		updateTops();
+		return cleared;
 	}
 	
 	/*
 	 * Clears the specified row
 	 */
 	public void clearRow(int row){
-		// Iterates through the columns of specified row
-		// Setting each to empty
-		for (int col = 0; col < WIDTH; col++) {
-			set(row, col, EMPTY);
+		hash ^= Zobrist.hashRow(row, rows[row]);
+		emptyRow(row);
+		updateTops();
+	}
+
+	/*
+	 * Empties the specified row, leaving the hash as is
+	 */
+	private void emptyRow(int row) {
+		rows[row] = 0;
+		for (int i = row * WIDTH; i < (row + 1) * WIDTH; i++) {
+			cells[i] = 0;
 		}
 	}
 	
@@ -124,44 +547,138 @@ public class Grid {
 	 * Moves the specified row down by one
 	 */
 	public void moveRowDown(int row){
-		for(int col = 0; col<WIDTH; col++){
-			set(row+1, col, board[row][col].getColor());
+		hash ^= Zobrist.hashRow(row + 1, rows[row + 1])
+				^ Zobrist.hashRow(row + 1, rows[row]);
+		rows[row + 1] = rows[row];
+		System.arraycopy(cells, row * WIDTH, cells, (row + 1) * WIDTH, WIDTH);
+		touch(row + 1);
+		updateTops();
+	}
+
+	/**
+	 * Pushes garbage rows in at the bottom of the grid: every row moves up by
+	 * count rows, and the bottom count rows are filled but for a hole in the
+	 * given column. The squares of the top count rows are pushed out of the
+	 * grid.
+	 *
+	 * The rows move in a single pass, the hash is updated row by row, and the
+	 * column tops are found again from the top: no square is looked at twice.
+	 *
+	 * @param count
+	 *            the number of garbage rows, from 0 to HEIGHT
+	 * @param hole
+	 *            the column left empty in every garbage row
+	 * @param c
+	 *            the color of the garbage squares
+	 * @return true if occupied squares were pushed out of the grid
+	 * @throws IllegalArgumentException
+	 *             if count or hole is outside of the grid, or c is EMPTY
+	 */
+	public boolean addGarbage(int count, int hole, Color c) {
+		if (count < 0 || count > HEIGHT) {
+			throw new IllegalArgumentException("Invalid count = " + count);
+		}
+		if (hole < 0 || hole >= WIDTH) {
+			throw new IllegalArgumentException("Invalid hole = " + hole);
+		}
+		int index = paletteIndex(c);
+		if (index == 0) {
+			throw new IllegalArgumentException("Invalid color = " + c);
+		}
+		if (count == 0) {
+			return false;
+		}
+
+		boolean overflow = false;
+		for (int row = 0; row < count; row++) {
+			if (rows[row] != 0) {
+				hash ^= Zobrist.hashRow(row, rows[row]);
+				overflow = true;
+			}
+		}
+		for (int row = count; row < HEIGHT; row++) {
+			if (rows[row] != 0) {
+				hash ^= Zobrist.hashRow(row, rows[row])
+						^ Zobrist.hashRow(row - count, rows[row]);
+			}
+			rows[row - count] = rows[row];
 		}
+		System.arraycopy(cells, count * WIDTH, cells, 0, (HEIGHT - count)
+				* WIDTH);
+
+		int garbage = FULL_ROW & ~(1 << hole);
+		for (int row = HEIGHT - count; row < HEIGHT; row++) {
+			rows[row] = garbage;
+			hash ^= Zobrist.hashRow(row, garbage);
+			for (int col = 0; col < WIDTH; col++) {
+				cells[row * WIDTH + col] = (byte) (col == hole ? 0 : index);
+			}
+		}
+
+		// the rows to check moved up with their squares; a garbage row is
+		// never full
+		touchedTop = Math.max(0, touchedTop - count);
+		touchedBottom -= count;
+		if (touchedBottom < 0) {
+			touchedTop = HEIGHT;
+			touchedBottom = -1;
+		}
+		garbageRows += count;
+		updateTops();
+		return overflow;
 	}
 
 	/**
 	 * Draws the grid on the given Graphics context
 	 */
 	public void draw(Graphics g) {
+		drawEdges(g);
 
-		// draw the edges as rectangles: left, right in blue then bottom in red
-		g.setColor(Color.BLUE);
-		g.fillRect(LEFT - BORDER, TOP, BORDER, HEIGHT * Square.HEIGHT);
-		g.fillRect(LEFT + WIDTH * Square.WIDTH, TOP, BORDER, HEIGHT
-				* Square.HEIGHT);
-		g.setColor(Color.RED);
-		g.fillRect(LEFT - BORDER, TOP + HEIGHT * Square.HEIGHT, WIDTH
-				* Square.WIDTH + 2 * BORDER, BORDER);
+		// only the squares in the area being repainted need drawing (a square
+		// border spills one pixel over its right and bottom neighbors). Without
+		// a clip, getClipBounds leaves clip as set here: everything is drawn.
+		clip.setBounds(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		g.getClipBounds(clip);
+		int top = Math.max(0, Math.floorDiv(clip.y - 1 - TOP, Square.HEIGHT));
+		int bottom = Math.min(HEIGHT - 1, Math.floorDiv(clip.y + clip.height
+				- TOP, Square.HEIGHT));
+		int left = Math.max(0, Math.floorDiv(clip.x - 1 - LEFT, Square.WIDTH));
+		int right = Math.min(WIDTH - 1, Math.floorDiv(clip.x + clip.width
+				- LEFT, Square.WIDTH));
 
 		// draw all the squares in the grid
 		// empty ones first (to avoid masking the black lines of the pieces that
 		// have already fallen)
-		for (int r = 0; r < HEIGHT; r++) {
-			for (int c = 0; c < WIDTH; c++) {
-				if (board[r][c].getColor().equals(EMPTY)) {
-					board[r][c].draw(g);
+		for (int r = top; r <= bottom; r++) {
+			for (int c = left; c <= right; c++) {
+				if (!isSet(r, c)) {
+					Square.draw(g, r, c, getColor(r, c));
 				}
 			}
 		}
-		for (int r = 0; r < HEIGHT; r++) {
-			for (int c = 0; c < WIDTH; c++) {
-				if (!board[r][c].getColor().equals(EMPTY)) {
-					board[r][c].draw(g);
+		for (int r = top; r <= bottom; r++) {
+			for (int c = left; c <= right; c++) {
+				if (isSet(r, c)) {
+					Square.draw(g, r, c, getColor(r, c));
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Draws the edges of the grid on the given Graphics context
+	 */
+	public static void drawEdges(Graphics g) {
+		// draw the edges as rectangles: left, right in blue then bottom in red
+		g.setColor(Color.BLUE);
+		g.fillRect(LEFT - BORDER, TOP, BORDER, HEIGHT * Square.HEIGHT);
+		g.fillRect(LEFT + WIDTH * Square.WIDTH, TOP, BORDER, HEIGHT
+				* Square.HEIGHT);
+		g.setColor(Color.RED);
+		g.fillRect(LEFT - BORDER, TOP + HEIGHT * Square.HEIGHT, WIDTH
+				* Square.WIDTH + 2 * BORDER, BORDER);
+	}
+
 	public String toString() {
 		String s = "";
 		for (int row = 0; row < HEIGHT; row++) {
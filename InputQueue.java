@@ -0,0 +1,145 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The keys pressed and released by the player, each with the System.nanoTime
+ * at which it happened, waiting for the game loop to play them.
+ *
+ * The queue is a ring buffer without locks for one producer (e.g. the event
+ * thread, calling offer) and one consumer (the game loop, calling poll): the
+ * producer never waits for the game, and the game never waits for the
+ * producer.
+ *
+ * @author MO-Productions
+ */
+public class InputQueue {
+
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	private long[] times; // time of each event, in nanoseconds
+
+	private byte[] events; // direction of each event, << 1, | 1 if pressed
+
+	private int mask; // capacity - 1, to wrap an index around the ring
+
+	private AtomicLong head; // number of events polled, written by poll
+
+	private AtomicLong tail; // number of events offered, written by offer
+
+	private long dropped; // events lost to a full queue, written by offer
+
+	// the last event polled, read by the consumer
+	private long time;
+
+	private Direction direction;
+
+	private boolean pressed;
+
+	/**
+	 * Creates a queue of DEFAULT_CAPACITY events
+	 */
+	public InputQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a queue
+	 *
+	 * @param capacity
+	 *            the number of events the queue holds, a power of 2
+	 * @throws IllegalArgumentException
+	 *             if capacity is not a positive power of 2
+	 */
+	public InputQueue(int capacity) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Invalid capacity = "
+					+ capacity);
+		}
+		times = new long[capacity];
+		events = new byte[capacity];
+		mask = capacity - 1;
+		head = new AtomicLong();
+		tail = new AtomicLong();
+	}
+
+	/**
+	 * Adds an event to the queue. Called by the producer only.
+	 *
+	 * @param nanos
+	 *            the System.nanoTime at which the key was pressed or released
+	 * @param direction
+	 *            the direction of the key
+	 * @param pressed
+	 *            true if the key was pressed, false if released
+	 * @return false if the queue is full: the event is lost
+	 */
+	public boolean offer(long nanos, Direction direction, boolean pressed) {
+		long t = tail.get();
+		if (t - head.get() > mask) {
+			dropped++;
+			return false;
+		}
+		int i = (int) t & mask;
+		times[i] = nanos;
+		events[i] = (byte) (direction.ordinal() << 1 | (pressed ? 1 : 0));
+		// the event is written before the consumer can see it
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Takes the next event from the queue if it happened at or before the
+	 * given time. Called by the consumer only. The event taken is then given
+	 * by getTime, getDirection and isPressed.
+	 *
+	 * @param until
+	 *            the latest System.nanoTime of an event to take
+	 * @return true if an event was taken
+	 */
+	public boolean poll(long until) {
+		long h = head.get();
+		if (h == tail.get()) {
+			return false;
+		}
+		int i = (int) h & mask;
+		if (times[i] - until > 0) {
+			return false;
+		}
+		time = times[i];
+		direction = DIRECTIONS[events[i] >> 1];
+		pressed = (events[i] & 1) != 0;
+		// the slot is read before the producer can write it again
+		head.lazySet(h + 1);
+		return true;
+	}
+
+	/**
+	 * Returns the System.nanoTime of the event last taken by poll
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Returns the direction of the key of the event last taken by poll
+	 */
+	public Direction getDirection() {
+		return direction;
+	}
+
+	/**
+	 * Returns true if the event last taken by poll is a key pressed, false if
+	 * released
+	 */
+	public boolean isPressed() {
+		return pressed;
+	}
+
+	/**
+	 * Returns the number of events lost because the queue was full
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+}
@@ -18,10 +18,15 @@ import java.awt.Point;
  */
 public class LShape extends AbstractPiece implements Piece {
 
+	// offsets of the squares from the center square[1] in each orientation,
+	// starting with the squares as created below
+	private static final int[][] ROTATIONS = rotationTable(-1, 0, 0, 0, 1, 0, 1, 1);
+
 	public LShape(int r, int c, Grid g) {
 		grid = g;
 		square = new Square[PIECE_COUNT];
 		ableToMove = true;
+		rotations = ROTATIONS;
 
 		// Create the squares
 		square[0] = new Square(g, r - 1, c, Color.magenta, true);
@@ -0,0 +1,125 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in fixed buckets, one per power of 2 of nanoseconds:
+ * bucket 0 holds 0 ns, bucket i holds 2^(i-1) to 2^i - 1 ns. Recording is a
+ * few atomic increments, without locks or allocation, from any thread.
+ *
+ * A percentile is known to within a factor of 2: getPercentileNanos returns
+ * the upper bound of its bucket.
+ *
+ * @author MO-Productions
+ */
+public class LatencyHistogram {
+
+	public static final int BUCKETS = 64;
+
+	private AtomicLongArray counts; // number of durations in each bucket
+
+	private AtomicLong total; // sum of the durations
+
+	private AtomicLong max; // longest duration
+
+	/**
+	 * Creates an empty histogram
+	 */
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		total = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Counts a duration
+	 *
+	 * @param nanos
+	 *            the duration in nanoseconds; a negative one counts as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+		total.addAndGet(nanos);
+		long m = max.get();
+		while (nanos > m && !max.compareAndSet(m, nanos)) {
+			m = max.get();
+		}
+	}
+
+	/**
+	 * Returns the number of durations counted
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of durations counted in the given bucket
+	 *
+	 * @param bucket
+	 *            the bucket, from 0 to BUCKETS - 1
+	 */
+	public long getCount(int bucket) {
+		return counts.get(bucket);
+	}
+
+	/**
+	 * Returns the mean duration in nanoseconds, or 0 if none was counted
+	 */
+	public long getMeanNanos() {
+		long count = getCount();
+		return count == 0 ? 0 : total.get() / count;
+	}
+
+	/**
+	 * Returns the longest duration counted, in nanoseconds
+	 */
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the duration in nanoseconds that the given fraction of the
+	 * durations counted do not exceed, rounded up to the upper bound of its
+	 * bucket, or 0 if none was counted
+	 *
+	 * @param fraction
+	 *            the fraction, from 0 to 1, e.g. 0.99 for the 99th percentile
+	 * @throws IllegalArgumentException
+	 *             if fraction is not from 0 to 1
+	 */
+	public long getPercentileNanos(double fraction) {
+		if (!(fraction >= 0 && fraction <= 1)) {
+			throw new IllegalArgumentException("Invalid fraction = "
+					+ fraction);
+		}
+		long rank = (long) Math.ceil(fraction * getCount());
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank && seen > 0) {
+				// the upper bound of bucket i, no more than the longest
+				return Math.min(i == 0 ? 0 : (1L << i) - 1, getMaxNanos());
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Forgets every duration counted. Durations counted meanwhile by other
+	 * threads may be partly forgotten.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.set(0);
+		max.set(0);
+	}
+}
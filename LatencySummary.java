@@ -0,0 +1,81 @@
+import java.beans.ConstructorProperties;
+
+/**
+ * The figures of a LatencyHistogram at one moment, in nanoseconds.
+ *
+ * @author MO-Productions
+ */
+public class LatencySummary {
+
+	private long count;
+
+	private long meanNanos;
+
+	private long p50Nanos;
+
+	private long p99Nanos;
+
+	private long maxNanos;
+
+	/**
+	 * Creates the summary of a histogram
+	 *
+	 * @param histogram
+	 *            the histogram to sum up
+	 */
+	public LatencySummary(LatencyHistogram histogram) {
+		this(histogram.getCount(), histogram.getMeanNanos(), histogram
+				.getPercentileNanos(0.5), histogram.getPercentileNanos(0.99),
+				histogram.getMaxNanos());
+	}
+
+	/**
+	 * Creates a summary
+	 *
+	 * @param count
+	 *            the number of durations
+	 * @param meanNanos
+	 *            the mean duration
+	 * @param p50Nanos
+	 *            the median duration
+	 * @param p99Nanos
+	 *            the 99th percentile duration
+	 * @param maxNanos
+	 *            the longest duration
+	 */
+	@ConstructorProperties( { "count", "meanNanos", "p50Nanos", "p99Nanos",
+			"maxNanos" })
+	public LatencySummary(long count, long meanNanos, long p50Nanos,
+			long p99Nanos, long maxNanos) {
+		this.count = count;
+		this.meanNanos = meanNanos;
+		this.p50Nanos = p50Nanos;
+		this.p99Nanos = p99Nanos;
+		this.maxNanos = maxNanos;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMeanNanos() {
+		return meanNanos;
+	}
+
+	public long getP50Nanos() {
+		return p50Nanos;
+	}
+
+	public long getP99Nanos() {
+		return p99Nanos;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	public String toString() {
+		return count + " x mean " + meanNanos + " ns, p50 " + p50Nanos
+				+ " ns, p99 " + p99Nanos + " ns, max " + maxNanos + " ns";
+	}
+}
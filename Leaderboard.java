@@ -0,0 +1,226 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The standings of the policies of a Tournament, updated game by game as the
+ * results come in: the games each policy played, the rows it removed (mean
+ * and standard error), its best game, the games it lost before the piece
+ * limit, and the seeds it won.
+ *
+ * A policy wins a seed by removing more rows than every other policy on it;
+ * a seed whose best score is shared is won by nobody. As every policy plays
+ * the same pieces on a seed, the wins compare the policies game for game,
+ * where the means also carry the luck of the seeds.
+ *
+ * The methods may be called from any thread.
+ *
+ * @author MO-Productions
+ */
+public class Leaderboard {
+
+	private String[] names; // of the policies
+
+	private long[] games;
+
+	private long[] lines; // sum of the rows removed
+
+	private double[] squares; // sum of the squares of the rows removed
+
+	private int[] best; // most rows removed in a game
+
+	private long[] pieces;
+
+	private long[] lost; // games over before the piece limit
+
+	private long[] wins; // seeds won
+
+	/**
+	 * Creates the empty standings of the given policies
+	 *
+	 * @param names
+	 *            the names of the policies
+	 */
+	public Leaderboard(String[] names) {
+		int count = names.length;
+		this.names = names.clone();
+		games = new long[count];
+		lines = new long[count];
+		squares = new double[count];
+		best = new int[count];
+		pieces = new long[count];
+		lost = new long[count];
+		wins = new long[count];
+	}
+
+	/**
+	 * Records a game of a policy
+	 *
+	 * @param policy
+	 *            the index of the policy
+	 * @param lines
+	 *            the rows removed
+	 * @param pieces
+	 *            the pieces placed
+	 * @param over
+	 *            did the game end before the piece limit?
+	 */
+	public synchronized void record(int policy, int lines, int pieces,
+			boolean over) {
+		games[policy]++;
+		this.lines[policy] += lines;
+		squares[policy] += (double) lines * lines;
+		best[policy] = Math.max(best[policy], lines);
+		this.pieces[policy] += pieces;
+		if (over) {
+			lost[policy]++;
+		}
+	}
+
+	/**
+	 * Records the seed won by a policy
+	 *
+	 * @param policy
+	 *            the index of the policy
+	 */
+	public synchronized void recordWin(int policy) {
+		wins[policy]++;
+	}
+
+	/**
+	 * Returns the number of policies
+	 */
+	public int getCount() {
+		return names.length;
+	}
+
+	/**
+	 * Returns the name of a policy
+	 *
+	 * @param policy
+	 *            the index of the policy
+	 */
+	public String getName(int policy) {
+		return names[policy];
+	}
+
+	/**
+	 * Returns the number of games played by a policy
+	 *
+	 * @param policy
+	 *            the index of the policy
+	 */
+	public synchronized long getGames(int policy) {
+		return games[policy];
+	}
+
+	/**
+	 * Returns the number of rows removed by a policy in all its games
+	 *
+	 * @param policy
+	 *            the index of the policy
+	 */
+	public synchronized long getTotalLines(int policy) {
+		return lines[policy];
+	}
+
+	/**
+	 * Returns the mean number of rows removed by a policy in a game
+	 *
+	 * @param policy
+	 *            the index of the policy
+	 */
+	public synchronized double getMeanLines(int policy) {
+		return games[policy] == 0 ? 0 : (double) lines[policy]
+				/ games[policy];
+	}
+
+	/**
+	 * Returns the standard error of the mean number of rows removed by a
+	 * policy in a game
+	 *
+	 * @param policy
+	 *            the index of the policy
+	 */
+	public synchronized double getStandardError(int policy) {
+		long n = games[policy];
+		if (n < 2) {
+			return 0;
+		}
+		double mean = (double) lines[policy] / n;
+		double variance = (squares[policy] - n * mean * mean) / (n - 1);
+		return Math.sqrt(Math.max(0, variance) / n);
+	}
+
+	/**
+	 * Returns the most rows removed by a policy in a game
+	 *
+	 * @param policy
+	 *            the index of the policy
+	 */
+	public synchronized int getBestLines(int policy) {
+		return best[policy];
+	}
+
+	/**
+	 * Returns the number of pieces placed by a policy in all its games
+	 *
+	 * @param policy
+	 *            the index of the policy
+	 */
+	public synchronized long getTotalPieces(int policy) {
+		return pieces[policy];
+	}
+
+	/**
+	 * Returns the number of games of a policy over before the piece limit
+	 *
+	 * @param policy
+	 *            the index of the policy
+	 */
+	public synchronized long getLost(int policy) {
+		return lost[policy];
+	}
+
+	/**
+	 * Returns the number of seeds won by a policy
+	 *
+	 * @param policy
+	 *            the index of the policy
+	 */
+	public synchronized long getWins(int policy) {
+		return wins[policy];
+	}
+
+	/**
+	 * Returns the indexes of the policies, by mean rows removed, best first
+	 */
+	public synchronized Integer[] getRanking() {
+		Integer[] ranking = new Integer[names.length];
+		final double[] means = new double[names.length];
+		for (int i = 0; i < ranking.length; i++) {
+			ranking[i] = i;
+			means[i] = getMeanLines(i);
+		}
+		Arrays.sort(ranking, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(means[b], means[a]);
+			}
+		});
+		return ranking;
+	}
+
+	public synchronized String toString() {
+		StringBuilder s = new StringBuilder(String.format(
+				"%-4s %-16s %8s %12s %8s %8s %8s%n", "rank", "policy",
+				"games", "lines", "best", "lost", "wins"));
+		Integer[] ranking = getRanking();
+		for (int r = 0; r < ranking.length; r++) {
+			int p = ranking[r];
+			s.append(String.format(
+					"%-4d %-16s %8d %7.1f+-%-3.1f %8d %8d %8d%n", r + 1,
+					names[p], games[p], getMeanLines(p), getStandardError(p),
+					best[p], lost[p], wins[p]));
+		}
+		return s.toString();
+	}
+}
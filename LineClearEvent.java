@@ -0,0 +1,21 @@
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Full rows removed from the grid, timing Grid.checkRows.
+ *
+ * @author MO-Productions
+ */
+@Name("tetris.LineClear")
+@Label("Line Clear")
+@Description("Full rows removed from the grid")
+public class LineClearEvent extends GameEvent {
+	private static final EventType TYPE = EventType
+			.getEventType(LineClearEvent.class);
+
+	static boolean isOn() {
+		return TYPE.isEnabled();
+	}
+}
@@ -0,0 +1,21 @@
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A piece locking into the grid, timing Game.updatePiece.
+ *
+ * @author MO-Productions
+ */
+@Name("tetris.Lock")
+@Label("Lock")
+@Description("A piece locking into the grid")
+public class LockEvent extends GameEvent {
+	private static final EventType TYPE = EventType
+			.getEventType(LockEvent.class);
+
+	static boolean isOn() {
+		return TYPE.isEnabled();
+	}
+}
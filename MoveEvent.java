@@ -0,0 +1,24 @@
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A move or drop of the piece, timing Game.movePiece.
+ *
+ * @author MO-Productions
+ */
+@Name("tetris.Move")
+@Label("Move")
+@Description("A move or drop of the piece")
+public class MoveEvent extends GameEvent {
+	private static final EventType TYPE = EventType
+			.getEventType(MoveEvent.class);
+
+	@Label("Direction")
+	String direction;
+
+	static boolean isOn() {
+		return TYPE.isEnabled();
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ * Chooses the pieces of a Tetris game, one after the other.
+ * 
+ * A piece is named by its type, from 0 to TYPES - 1 (see Game for the shape
+ * of each type). A generator also shows a preview of the pieces to come.
+ * 
+ * @author MO-Productions
+ */
+public interface PieceGenerator {
+	// number of different pieces
+	public static final int TYPES = 7;
+
+	/**
+	 * Returns the type of the next piece and moves on to the one after it
+	 */
+	public int next();
+
+	/**
+	 * Returns the type of an upcoming piece without moving on
+	 * 
+	 * @param i
+	 *            0 for the piece next() returns, 1 for the one after it, ...
+	 * @throws IndexOutOfBoundsException
+	 *             if i < 0 || i >= getPreviewSize()
+	 */
+	public int peek(int i);
+
+	/**
+	 * Returns how many upcoming pieces peek can show
+	 */
+	public int getPreviewSize();
+}
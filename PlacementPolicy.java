@@ -0,0 +1,16 @@
+/**
+ * A computer player: decides where each piece of a Tetris game goes.
+ * 
+ * A policy is used by one game at a time and may keep state between pieces.
+ * 
+ * @author MO-Productions
+ */
+public interface PlacementPolicy {
+	/**
+	 * Places the current piece of the game, usually through Game.place
+	 * 
+	 * @param game
+	 *            the game to play, which has a piece dropping
+	 */
+	public void place(Game game);
+}
@@ -0,0 +1,47 @@
+/**
+ * A PlacementPolicy putting each piece in a random orientation and column. It
+ * is the baseline any real policy should beat.
+ * 
+ * @author MO-Productions
+ */
+public class RandomPolicy implements PlacementPolicy {
+	private long state; // state of the random sequence
+
+	/**
+	 * Creates a random policy
+	 * 
+	 * @param seed
+	 *            the seed of the random sequence
+	 */
+	public RandomPolicy(long seed) {
+		// xorshift never leaves a zero state
+		state = (seed == 0) ? 0x9E3779B97F4A7C15L : seed;
+	}
+
+	/**
+	 * Creates the random policy of the game of the given seed: the games of
+	 * different seeds get different sequences, unrelated to their pieces
+	 * 
+	 * @param seed
+	 *            the seed of the game
+	 */
+	public static RandomPolicy forGame(long seed) {
+		return new RandomPolicy(seed * 0x9E3779B97F4A7C15L);
+	}
+
+	public void place(Game game) {
+		int orientation = nextInt(AbstractPiece.ORIENTATIONS);
+		int column = nextInt(Grid.WIDTH);
+		game.place(orientation, column);
+	}
+
+	/*
+	 * Returns a random number from 0 to bound - 1 (a 64 bit xorshift)
+	 */
+	private int nextInt(int bound) {
+		state ^= state << 13;
+		state ^= state >>> 7;
+		state ^= state << 17;
+		return (int) (((state >>> 32) * bound) >>> 32);
+	}
+}
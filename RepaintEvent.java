@@ -0,0 +1,25 @@
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The game painted on the screen, timing Tetris.paintComponent.
+ *
+ * @author MO-Productions
+ */
+@Name("tetris.Repaint")
+@Label("Repaint")
+@Description("The game painted on the screen")
+public class RepaintEvent extends GameEvent {
+	private static final EventType TYPE = EventType
+			.getEventType(RepaintEvent.class);
+
+	@Label("Area")
+	@Description("Pixels painted")
+	int area;
+
+	static boolean isOn() {
+		return TYPE.isEnabled();
+	}
+}
@@ -0,0 +1,284 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * A recorded game, as made by a ReplayRecorder: the generator of the pieces
+ * and its seed, the gravity, and every key played with the tick it was played
+ * at. Played back on a headless Game, it gives the same game again, as fast
+ * as the CPU allows.
+ *
+ * The bytes of a replay are, in order:
+ * <ul>
+ * <li>the magic number 'T', 'R' and the version, 1
+ * <li>the generator: UNIFORM or BAG, in one byte
+ * <li>the seed of the generator, in 8 bytes
+ * <li>the gravity, in 1/Game.GRAVITY_UNIT of a row per tick
+ * <li>the final ticks, pieces, lines and moves of the game
+ * <li>the final hash of the grid, in 8 bytes
+ * <li>the number of keys, then each key as (ticks since the previous key
+ * &lt;&lt; 3 | direction ordinal)
+ * </ul>
+ * Numbers are unsigned varints (7 bits per byte, lowest first, high bit set
+ * on all bytes but the last) and fixed numbers are little endian, so a key
+ * takes one byte when it is played within 15 ticks of the previous one.
+ *
+ * @author MO-Productions
+ */
+public class Replay {
+
+	// the generator of the pieces
+	public static final int UNIFORM = 0;
+
+	public static final int BAG = 1;
+
+	static final int VERSION = 1;
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	private ByteBuffer data; // the bytes of the replay
+
+	private int generator; // UNIFORM or BAG
+
+	private long seed;
+
+	private int gravity; // in Game.GRAVITY_UNIT
+
+	private long ticks;
+
+	private int pieces;
+
+	private int lines;
+
+	private int moves;
+
+	private long hash;
+
+	private int keyCount; // number of keys
+
+	private int keys; // index in data of the first key
+
+	private int pos; // index in data of the next byte read
+
+	/**
+	 * Reads the header of a replay
+	 *
+	 * @param data
+	 *            the bytes of the replay, not copied
+	 * @throws IllegalArgumentException
+	 *             if data is not a replay
+	 */
+	public Replay(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Reads the header of a replay, e.g. from a ReplayArchive
+	 * 
+	 * @param data
+	 *            the bytes of the replay, from its position to its limit, not
+	 *            copied: the position of data is left unchanged
+	 * @throws IllegalArgumentException
+	 *             if data is not a replay
+	 */
+	public Replay(ByteBuffer data) {
+		this.data = data;
+		try {
+			pos = data.position();
+			if (readByte() != 'T' || readByte() != 'R'
+					|| readByte() != VERSION) {
+				throw new IllegalArgumentException("Not a replay");
+			}
+			generator = readByte();
+			if (generator != UNIFORM && generator != BAG) {
+				throw new IllegalArgumentException("Unknown generator = "
+						+ generator);
+			}
+			seed = readFixed();
+			gravity = (int) readVarLong();
+			ticks = readVarLong();
+			pieces = (int) readVarLong();
+			lines = (int) readVarLong();
+			moves = (int) readVarLong();
+			hash = readFixed();
+			keyCount = (int) readVarLong();
+			keys = pos;
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated replay");
+		}
+	}
+
+	/**
+	 * Creates a headless game with the pieces and gravity of the replay, then
+	 * plays the keys of the replay on it, each at its tick, and ticks it to
+	 * the end of the replay
+	 *
+	 * @return the game played
+	 * @throws IllegalArgumentException
+	 *             if the keys are truncated
+	 */
+	public Game play() {
+		Game game = new Game(createGenerator(generator, seed));
+		game.setGravity((double) gravity / Game.GRAVITY_UNIT);
+		pos = keys;
+		long tick = 0;
+		try {
+			for (int i = 0; i < keyCount; i++) {
+				long key = readVarLong();
+				tick += key >>> 3;
+				while (game.getTicks() < tick && !game.isGameOver()) {
+					game.tick();
+				}
+				game.input(DIRECTIONS[(int) (key & 7)]);
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated replay");
+		}
+		while (game.getTicks() < ticks && !game.isGameOver()) {
+			game.tick();
+		}
+		return game;
+	}
+
+	/**
+	 * Plays the replay, then returns true if the game ended as recorded: same
+	 * ticks, pieces, lines, moves and grid
+	 */
+	public boolean verify() {
+		Game game = play();
+		return game.getTicks() == ticks && game.getPieces() == pieces
+				&& game.getLines() == lines && game.getMoves() == moves
+				&& game.getGrid().getHash() == hash;
+	}
+
+	/**
+	 * Creates a generator of the given kind
+	 *
+	 * @param generator
+	 *            UNIFORM or BAG
+	 * @param seed
+	 *            the seed of the generator
+	 * @throws IllegalArgumentException
+	 *             if generator is not UNIFORM or BAG
+	 */
+	public static PieceGenerator createGenerator(int generator, long seed) {
+		switch (generator) {
+		case UNIFORM:
+			return new UniformGenerator(seed);
+		case BAG:
+			return new BagGenerator(seed);
+		default:
+			throw new IllegalArgumentException("Unknown generator = "
+					+ generator);
+		}
+	}
+
+	/*
+	 * Reads the byte at pos
+	 */
+	private byte readByte() {
+		if (pos >= data.limit()) {
+			throw new IndexOutOfBoundsException("Invalid pos = " + pos);
+		}
+		return data.get(pos++);
+	}
+
+	/*
+	 * Reads the varint at pos
+	 */
+	private long readVarLong() {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	/*
+	 * Reads the 8 byte little endian number at pos
+	 */
+	private long readFixed() {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value |= (long) (readByte() & 0xFF) << (8 * i);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns UNIFORM or BAG, the generator of the pieces
+	 */
+	public int getGenerator() {
+		return generator;
+	}
+
+	/**
+	 * Returns the seed of the generator of the pieces
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the number of keys played
+	 */
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * Returns the number of ticks the game was played
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Returns the number of pieces locked in the game
+	 */
+	public int getPieces() {
+		return pieces;
+	}
+
+	/**
+	 * Returns the number of rows removed in the game
+	 */
+	public int getLines() {
+		return lines;
+	}
+
+	/**
+	 * Returns the number of moves and rotations of the game
+	 */
+	public int getMoves() {
+		return moves;
+	}
+
+	/**
+	 * Returns the hash of the grid at the end of the game
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Verifies the replays in the given files, e.g. java Replay game.replay
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String file : args) {
+			Replay replay = new Replay(Files.readAllBytes(Paths.get(file)));
+			long start = System.nanoTime();
+			boolean ok = replay.verify();
+			long nanos = System.nanoTime() - start;
+			System.out.println(file + ": " + (ok ? "ok" : "MISMATCH") + ", "
+					+ replay.getTicks() + " ticks, " + replay.getKeyCount()
+					+ " keys, " + replay.getPieces() + " pieces, "
+					+ replay.getLines() + " lines, played in " + nanos / 1000
+					+ " us");
+		}
+	}
+}
@@ -0,0 +1,271 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Reads an archive of replays, as written by a ReplayArchiveWriter, through
+ * memory maps: a replay is read where the file is mapped, without being
+ * copied.
+ *
+ * An archive is two files: the data file, the replays one after the other,
+ * and the index file, a header then one fixed size entry per replay:
+ * <ul>
+ * <li>header: MAGIC then VERSION, 4 bytes each
+ * <li>entry: the offset of the replay in the data file, in 8 bytes, then its
+ * length, in 4 bytes
+ * </ul>
+ * all little endian. The entry of the replay with a given id is at
+ * HEADER_SIZE + id * ENTRY_SIZE, so any replay is found without reading the
+ * others.
+ *
+ * The files are mapped in segments of up to SEGMENT_SIZE bytes. The data
+ * segments overlap by MAX_REPLAY_SIZE, so that each replay lies whole in the
+ * segment of its offset.
+ *
+ * An archive is safe to read from many threads, e.g. each scanning its own
+ * range of ids (see getShardStart).
+ *
+ * @author MO-Productions
+ */
+public class ReplayArchive implements Closeable {
+
+	public static final String INDEX_SUFFIX = ".idx";
+
+	public static final int MAGIC = 0x58495254; // "TRIX", little endian
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 8; // bytes of the index header
+
+	public static final int ENTRY_SIZE = 12; // bytes of an index entry
+
+	public static final int MAX_REPLAY_SIZE = 1 << 20; // bytes of a replay
+
+	public static final int SEGMENT_SIZE = 1 << 30; // bytes of a mapping
+
+	// number of index entries in an index segment
+	private static final int SEGMENT_ENTRIES = SEGMENT_SIZE / ENTRY_SIZE;
+
+	private FileChannel data; // the data file
+
+	private FileChannel index; // the index file
+
+	private long count; // number of replays
+
+	private MappedByteBuffer[] dataSegments; // segment i from i * SEGMENT_SIZE
+
+	private MappedByteBuffer[] indexSegments; // SEGMENT_ENTRIES entries each
+
+	/**
+	 * Opens an archive to read
+	 *
+	 * @param path
+	 *            the data file of the archive; the index file is the same with
+	 *            INDEX_SUFFIX added
+	 * @throws IOException
+	 *             if the files cannot be read, or are not an archive
+	 */
+	public ReplayArchive(Path path) throws IOException {
+		data = FileChannel.open(path, StandardOpenOption.READ);
+		index = FileChannel.open(indexOf(path), StandardOpenOption.READ);
+		try {
+			map();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Maps the index and data files
+	 */
+	private void map() throws IOException {
+		long indexSize = index.size();
+		if (indexSize < HEADER_SIZE) {
+			throw new IOException("Not a replay archive");
+		}
+		ByteBuffer header = index.map(FileChannel.MapMode.READ_ONLY, 0,
+				HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		checkHeader(header);
+		// an entry only partly written is not part of the archive
+		count = (indexSize - HEADER_SIZE) / ENTRY_SIZE;
+
+		indexSegments = new MappedByteBuffer[(int) ((count
+				+ SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES)];
+		for (int i = 0; i < indexSegments.length; i++) {
+			long first = (long) i * SEGMENT_ENTRIES;
+			long entries = Math.min(SEGMENT_ENTRIES, count - first);
+			indexSegments[i] = map(index, position(first), entries
+					* ENTRY_SIZE);
+		}
+
+		long dataSize = data.size();
+		dataSegments = new MappedByteBuffer[(int) ((dataSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+		for (int i = 0; i < dataSegments.length; i++) {
+			long start = (long) i * SEGMENT_SIZE;
+			long length = Math.min(SEGMENT_SIZE + MAX_REPLAY_SIZE, dataSize
+					- start);
+			dataSegments[i] = map(data, start, length);
+		}
+	}
+
+	/*
+	 * Maps part of a file to read
+	 */
+	private static MappedByteBuffer map(FileChannel channel, long position,
+			long size) throws IOException {
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+				position, size);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		return buf;
+	}
+
+	/**
+	 * Returns the number of replays in the archive
+	 */
+	public long size() {
+		return count;
+	}
+
+	/**
+	 * Returns the bytes of a replay, from the position to the limit of a
+	 * read-only little endian buffer over the mapped file
+	 *
+	 * @param id
+	 *            the id of the replay, from 0 to size() - 1
+	 * @throws IndexOutOfBoundsException
+	 *             if id is not the id of a replay
+	 * @throws IllegalStateException
+	 *             if the entry of the replay lies outside of the data file
+	 */
+	public ByteBuffer get(long id) {
+		if (id < 0 || id >= count) {
+			throw new IndexOutOfBoundsException("Invalid id = " + id);
+		}
+		ByteBuffer entries = indexSegments[(int) (id / SEGMENT_ENTRIES)];
+		int at = (int) (id % SEGMENT_ENTRIES) * ENTRY_SIZE;
+		long offset = entries.getLong(at);
+		int length = entries.getInt(at + 8);
+
+		int segment = (int) (offset / SEGMENT_SIZE);
+		int start = (int) (offset % SEGMENT_SIZE);
+		if (offset < 0 || length < 0 || length > MAX_REPLAY_SIZE
+				|| segment >= dataSegments.length
+				|| start + length > dataSegments[segment].limit()) {
+			throw new IllegalStateException("Invalid entry of id = " + id);
+		}
+		return dataSegments[segment].slice(start, length).asReadOnlyBuffer()
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Calls action for each replay with an id from first to last - 1, in
+	 * order, with the bytes of the replay (see get) and its id
+	 *
+	 * @param first
+	 *            the id of the first replay
+	 * @param last
+	 *            one more than the id of the last replay
+	 * @param action
+	 *            called for each replay
+	 */
+	public void scan(long first, long last, ObjLongConsumer<ByteBuffer> action) {
+		for (long id = first; id < last; id++) {
+			action.accept(get(id), id);
+		}
+	}
+
+	/**
+	 * Returns the id of the first replay of a shard, when the archive is cut
+	 * into shards of about the same number of replays. The shard holds the
+	 * replays from getShardStart(shard, shards) to getShardStart(shard + 1,
+	 * shards) - 1.
+	 *
+	 * @param shard
+	 *            the shard, from 0 to shards (for the end of the last one)
+	 * @param shards
+	 *            the number of shards
+	 */
+	public long getShardStart(int shard, int shards) {
+		// count * shard / shards, without count * shard overflowing
+		return count / shards * shard + count % shards * shard / shards;
+	}
+
+	/**
+	 * Closes the files of the archive. The buffers returned by get must not
+	 * be used afterwards.
+	 */
+	public void close() throws IOException {
+		try {
+			data.close();
+		} finally {
+			index.close();
+		}
+	}
+
+	/**
+	 * Returns the path of the index file of the archive with the given data
+	 * file
+	 *
+	 * @param path
+	 *            the data file of the archive
+	 */
+	public static Path indexOf(Path path) {
+		return path.resolveSibling(path.getFileName() + INDEX_SUFFIX);
+	}
+
+	/*
+	 * Returns the position in the index file of the entry of the given id
+	 */
+	static long position(long id) {
+		return HEADER_SIZE + id * ENTRY_SIZE;
+	}
+
+	/*
+	 * Checks the header of an index file, in buf from 0
+	 */
+	static void checkHeader(ByteBuffer buf) throws IOException {
+		if (buf.getInt(0) != MAGIC) {
+			throw new IOException("Not a replay archive");
+		}
+		if (buf.getInt(4) != VERSION) {
+			throw new IOException("Unknown archive version = "
+					+ buf.getInt(4));
+		}
+	}
+
+	/**
+	 * Verifies every replay of an archive, on all cores, e.g. java
+	 * ReplayArchive games.tra
+	 */
+	public static void main(String[] args) throws IOException {
+		try (final ReplayArchive archive = new ReplayArchive(Paths
+				.get(args[0]))) {
+			final int shards = Runtime.getRuntime().availableProcessors();
+			final AtomicLong failed = new AtomicLong();
+			long start = System.nanoTime();
+			IntStream.range(0, shards).parallel().forEach(
+					shard -> archive.scan(archive.getShardStart(shard, shards),
+							archive.getShardStart(shard + 1, shards),
+							(replay, id) -> {
+								if (!new Replay(replay).verify()) {
+									System.out.println("MISMATCH: replay " + id);
+									failed.incrementAndGet();
+								}
+							}));
+			long nanos = System.nanoTime() - start;
+			System.out.println(args[0] + ": " + archive.size() + " replays, "
+					+ failed.get() + " mismatched, verified in " + nanos
+					/ 1000000 + " ms");
+		}
+	}
+}
@@ -0,0 +1,171 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends replays to a ReplayArchive: each replay to the end of the data file,
+ * then its offset and length to the end of the index file.
+ *
+ * An archive is only ever appended to. The index is written after the data,
+ * so an archive whose writer did not finish (e.g. the machine stopped) holds
+ * every replay of its index: opening it again drops the bytes after them.
+ *
+ * @author MO-Productions
+ */
+public class ReplayArchiveWriter implements Closeable {
+
+	private FileChannel data; // the data file
+
+	private FileChannel index; // the index file
+
+	private long count; // number of replays in the archive
+
+	private long end; // length of the data of those replays
+
+	private ByteBuffer entry; // the index entry being written
+
+	/**
+	 * Opens an archive to append to, creating it if it does not exist
+	 *
+	 * @param path
+	 *            the data file of the archive; the index file is the same with
+	 *            ReplayArchive.INDEX_SUFFIX added
+	 * @throws IOException
+	 *             if the files cannot be opened, or are not an archive
+	 */
+	public ReplayArchiveWriter(Path path) throws IOException {
+		data = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index = FileChannel.open(ReplayArchive.indexOf(path),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		entry = ByteBuffer.allocate(ReplayArchive.ENTRY_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		try {
+			open();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Reads the index to find the end of the archive, or writes the header of
+	 * a new one
+	 */
+	private void open() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(ReplayArchive.HEADER_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		if (index.size() == 0) {
+			header.putInt(ReplayArchive.MAGIC).putInt(ReplayArchive.VERSION);
+			header.flip();
+			writeFully(index, header, 0);
+			return;
+		}
+		readFully(index, header, 0);
+		ReplayArchive.checkHeader(header);
+
+		// a last entry only partly written is dropped, then the data after
+		// the last entry
+		count = (index.size() - ReplayArchive.HEADER_SIZE)
+				/ ReplayArchive.ENTRY_SIZE;
+		if (count > 0) {
+			readFully(index, entry, ReplayArchive.position(count - 1));
+			end = entry.getLong(0) + entry.getInt(8);
+		}
+		index.truncate(ReplayArchive.position(count));
+		data.truncate(end);
+	}
+
+	/**
+	 * Appends a replay to the archive
+	 *
+	 * @param replay
+	 *            the bytes of the replay, see ReplayRecorder.toByteArray
+	 * @return the id of the replay in the archive, from 0 for the first one
+	 * @throws IllegalArgumentException
+	 *             if the replay is longer than ReplayArchive.MAX_REPLAY_SIZE
+	 * @throws IOException
+	 *             if the replay cannot be written
+	 */
+	public long append(byte[] replay) throws IOException {
+		if (replay.length > ReplayArchive.MAX_REPLAY_SIZE) {
+			throw new IllegalArgumentException("Invalid replay length = "
+					+ replay.length);
+		}
+		writeFully(data, ByteBuffer.wrap(replay), end);
+		entry.clear();
+		entry.putLong(end).putInt(replay.length);
+		entry.flip();
+		writeFully(index, entry, ReplayArchive.position(count));
+		end += replay.length;
+		return count++;
+	}
+
+	/**
+	 * Returns the number of replays in the archive
+	 */
+	public long size() {
+		return count;
+	}
+
+	/**
+	 * Writes the archive to the disk, then closes its files
+	 */
+	public void close() throws IOException {
+		try {
+			if (data.isOpen()) {
+				data.force(false);
+				index.force(false);
+			}
+		} finally {
+			data.close();
+			index.close();
+		}
+	}
+
+	/*
+	 * Writes all of buf to the channel at the given position
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buf,
+			long position) throws IOException {
+		while (buf.hasRemaining()) {
+			position += channel.write(buf, position);
+		}
+	}
+
+	/*
+	 * Fills buf from the channel at the given position
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buf,
+			long position) throws IOException {
+		buf.clear();
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, position);
+			if (n < 0) {
+				throw new IOException("Truncated archive");
+			}
+			position += n;
+		}
+	}
+
+	/**
+	 * Appends replay files to an archive, e.g. java ReplayArchiveWriter
+	 * games.tra *.replay
+	 */
+	public static void main(String[] args) throws IOException {
+		try (ReplayArchiveWriter writer = new ReplayArchiveWriter(Paths
+				.get(args[0]))) {
+			for (int i = 1; i < args.length; i++) {
+				writer.append(Files.readAllBytes(Paths.get(args[i])));
+			}
+			System.out.println(args[0] + ": " + writer.size() + " replays");
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Records a game as a Replay: the generator of its pieces, its gravity, and
+ * every key played through Game.input with its tick.
+ *
+ * A recorder records a game from its start:
+ *
+ * <pre>
+ * Game game = new Game(new BagGenerator(seed));
+ * ReplayRecorder recorder = new ReplayRecorder(game);
+ * ... play the game with game.input and game.tick
+ * byte[] replay = recorder.toByteArray();
+ * </pre>
+ *
+ * @author MO-Productions
+ */
+public class ReplayRecorder {
+
+	private Game game; // the game recorded
+
+	private int generator; // Replay.UNIFORM or Replay.BAG
+
+	private long seed; // seed of the generator
+
+	private int gravity; // gravity at the start, in Game.GRAVITY_UNIT
+
+	private byte[] keys; // the keys recorded so far, encoded
+
+	private int size; // number of bytes used in keys
+
+	private int keyCount; // number of keys recorded
+
+	private long lastTick; // tick of the last key recorded
+
+	/**
+	 * Starts recording the given game
+	 *
+	 * @param game
+	 *            the game to record, not yet played
+	 * @throws IllegalArgumentException
+	 *             if the game was already played, or its generator is not a
+	 *             UniformGenerator or a BagGenerator
+	 */
+	public ReplayRecorder(Game game) {
+		if (game.getTicks() != 0 || game.getMoves() != 0) {
+			throw new IllegalArgumentException("Game already played");
+		}
+		PieceGenerator g = game.getGenerator();
+		if (g instanceof UniformGenerator) {
+			generator = Replay.UNIFORM;
+		} else if (g instanceof BagGenerator) {
+			generator = Replay.BAG;
+		} else {
+			throw new IllegalArgumentException("Unknown generator = " + g);
+		}
+		seed = ((AbstractPieceGenerator) g).getSeed();
+		gravity = (int) (game.getGravity() * Game.GRAVITY_UNIT);
+		this.game = game;
+		keys = new byte[256];
+		game.setRecorder(this);
+	}
+
+	/**
+	 * Records a key. Called by the game for every key played.
+	 *
+	 * @param tick
+	 *            the number of ticks played before the key
+	 * @param direction
+	 *            the direction of the key
+	 */
+	void record(long tick, Direction direction) {
+		if (keys.length - size < 10) {
+			byte[] larger = new byte[keys.length * 2];
+			System.arraycopy(keys, 0, larger, 0, size);
+			keys = larger;
+		}
+		size = writeVarLong(keys, size, (tick - lastTick) << 3
+				| direction.ordinal());
+		lastTick = tick;
+		keyCount++;
+	}
+
+	/**
+	 * Returns the number of keys recorded so far
+	 */
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * Returns the bytes of the replay of the game as played so far, see
+	 * Replay for the format
+	 */
+	public byte[] toByteArray() {
+		byte[] header = new byte[3 + 1 + 8 + 6 * 10 + 8];
+		header[0] = 'T';
+		header[1] = 'R';
+		header[2] = Replay.VERSION;
+		header[3] = (byte) generator;
+		int pos = writeFixed(header, 4, seed);
+		pos = writeVarLong(header, pos, gravity);
+		pos = writeVarLong(header, pos, game.getTicks());
+		pos = writeVarLong(header, pos, game.getPieces());
+		pos = writeVarLong(header, pos, game.getLines());
+		pos = writeVarLong(header, pos, game.getMoves());
+		pos = writeFixed(header, pos, game.getGrid().getHash());
+		pos = writeVarLong(header, pos, keyCount);
+
+		byte[] replay = new byte[pos + size];
+		System.arraycopy(header, 0, replay, 0, pos);
+		System.arraycopy(keys, 0, replay, pos, size);
+		return replay;
+	}
+
+	/*
+	 * Writes value as a varint into buf at pos, and returns the position after
+	 * it
+	 */
+	private static int writeVarLong(byte[] buf, int pos, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+		return pos;
+	}
+
+	/*
+	 * Writes value in 8 bytes, little endian, into buf at pos, and returns the
+	 * position after it
+	 */
+	private static int writeFixed(byte[] buf, int pos, long value) {
+		for (int i = 0; i < 8; i++) {
+			buf[pos++] = (byte) (value >>> (8 * i));
+		}
+		return pos;
+	}
+}
@@ -13,6 +13,10 @@ import java.awt.Color;
  */
 
 public class ReverseSShape extends AbstractPiece implements Piece {
+
+	// offsets of the squares from the center square[1] in each orientation,
+	// starting with the squares as created below
+	private static final int[][] ROTATIONS = rotationTable(0, 1, 0, 0, 1, 0, 1, -1);
 	/**
 	 * Creates an ReverseS-Shape piece. See class description for actual location of r
 	 * and c
@@ -29,6 +33,7 @@ public class ReverseSShape extends AbstractPiece implements Piece {
 		grid = g;
 		square = new Square[PIECE_COUNT];
 		ableToMove = true;
+		rotations = ROTATIONS;
 
 		// Create the squares
 		// square[1] is center
@@ -0,0 +1,21 @@
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A rotation of the piece, timing Game.rotatePiece.
+ *
+ * @author MO-Productions
+ */
+@Name("tetris.Rotate")
+@Label("Rotate")
+@Description("A rotation of the piece")
+public class RotateEvent extends GameEvent {
+	private static final EventType TYPE = EventType
+			.getEventType(RotateEvent.class);
+
+	static boolean isOn() {
+		return TYPE.isEnabled();
+	}
+}
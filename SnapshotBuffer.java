@@ -0,0 +1,63 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands the snapshots of a game from the thread playing it to the thread
+ * drawing it, without locks: a triple buffer.
+ *
+ * Of the three snapshots, the playing thread fills one (the back), the
+ * drawing thread reads another (the front), and the third (the middle) is
+ * the latest one published. Publishing swaps the back with the middle; taking
+ * swaps the front with the middle if it is newer. Neither thread ever waits
+ * for the other, and the drawing thread always gets a whole snapshot, the
+ * latest one.
+ *
+ * One thread at a time may publish (e.g. while holding the lock of the game),
+ * and one thread at a time may take.
+ *
+ * @author MO-Productions
+ */
+public class SnapshotBuffer {
+
+	private GameSnapshot back; // filled by publish
+
+	private AtomicReference<GameSnapshot> middle; // the latest published
+
+	private GameSnapshot front; // read by the drawing thread
+
+	/**
+	 * Creates a buffer holding the snapshot of an empty grid
+	 */
+	public SnapshotBuffer() {
+		back = new GameSnapshot();
+		GameSnapshot empty = new GameSnapshot();
+		empty.consumed = true;
+		middle = new AtomicReference<GameSnapshot>(empty);
+		front = new GameSnapshot();
+		front.consumed = true;
+	}
+
+	/**
+	 * Publishes the state of the given game. Does not allocate once the
+	 * snapshots have seen the colors of the game.
+	 *
+	 * @param game
+	 *            the game to copy
+	 */
+	public void publish(Game game) {
+		back.copy(game);
+		back.consumed = false;
+		back = middle.getAndSet(back);
+	}
+
+	/**
+	 * Returns the latest snapshot published. The snapshot stays valid until
+	 * the next call to take.
+	 */
+	public GameSnapshot take() {
+		if (!middle.get().consumed) {
+			front = middle.getAndSet(front);
+			front.consumed = true;
+		}
+		return front;
+	}
+}
@@ -0,0 +1,21 @@
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A new piece appearing, timing Game.updatePiece.
+ *
+ * @author MO-Productions
+ */
+@Name("tetris.Spawn")
+@Label("Spawn")
+@Description("A new piece appearing")
+public class SpawnEvent extends GameEvent {
+	private static final EventType TYPE = EventType
+			.getEventType(SpawnEvent.class);
+
+	static boolean isOn() {
+		return TYPE.isEnabled();
+	}
+}
@@ -0,0 +1,374 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the frames of a SpectatorEncoder of a game to any number of
+ * spectators.
+ *
+ * The broadcaster listens to the game: on the thread playing it, each tick
+ * is encoded once, into a read-only buffer shared by every spectator, and
+ * put in a log of the last LOG_SIZE frames. The moves between two ticks go
+ * with the next tick. The game's thread never touches a socket: a thread of
+ * the broadcaster writes the log to the spectators, each from where it got
+ * to, several frames at a time with a gathering write. The sockets are
+ * non-blocking and watched by a Selector.
+ *
+ * A spectator whose socket is full is left until it is writable again,
+ * holding no more than BATCH frames. One more than MAX_LAG frames behind is
+ * dropped to the next keyframe: the frames it missed are skipped, and the
+ * encoder is asked for a keyframe, as it is for a spectator joining.
+ *
+ * @author MO-Productions
+ */
+public class SpectatorBroadcaster implements GameListener, Closeable {
+
+	// frames kept for the spectators, a power of two
+	public static final int LOG_SIZE = 1024;
+
+	// frames a spectator can be behind before being dropped to a keyframe
+	public static final int MAX_LAG = SpectatorEncoder.KEYFRAME_INTERVAL;
+
+	// frames written to a spectator at once
+	static final int BATCH = 64;
+
+	// bytes of the buffers the frames are encoded into
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private Game game;
+
+	private SpectatorEncoder encoder;
+
+	private ByteBuffer chunk; // the frames are encoded into, then sliced off
+
+	private ByteBuffer[] log; // the last frames, frame n at n % LOG_SIZE
+
+	private volatile long published; // number of frames encoded
+
+	private long ticks; // ticks of the game when last encoded
+
+	private AtomicBoolean keyframeWanted; // by a spectator
+
+	private Selector selector; // watches the sockets of the spectators
+
+	private Queue<Subscriber> added; // spectators given by other threads
+
+	private List<Subscriber> subscribers; // spectators written to
+
+	private volatile int subscriberCount;
+
+	private volatile long drops; // times a spectator was dropped
+
+	private volatile boolean running;
+
+	private Thread thread; // writing to the spectators, once started
+
+	/*
+	 * A spectator, and the frames being written to it
+	 */
+	private static class Subscriber {
+
+		SocketChannel channel;
+
+		long next; // number of the next frame of the log to write
+
+		ByteBuffer[] batch; // frames being written, of their own positions
+
+		int batchStart, batchEnd; // frames of batch not written whole
+
+		boolean synced; // has a keyframe been written?
+
+		boolean blocked; // is the socket full?
+
+		Subscriber(SocketChannel channel) {
+			this.channel = channel;
+			batch = new ByteBuffer[BATCH];
+		}
+	}
+
+	/**
+	 * Creates a broadcaster of the given game, listening to it. start must be
+	 * called to write to the spectators.
+	 *
+	 * @param game
+	 *            the game to broadcast
+	 * @throws IOException
+	 *             if the selector cannot be opened
+	 */
+	public SpectatorBroadcaster(Game game) throws IOException {
+		this.game = game;
+		selector = Selector.open();
+		encoder = new SpectatorEncoder(game);
+		chunk = ByteBuffer.allocateDirect(CHUNK_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		log = new ByteBuffer[LOG_SIZE];
+		ticks = game.getTicks();
+		keyframeWanted = new AtomicBoolean();
+		added = new ConcurrentLinkedQueue<Subscriber>();
+		subscribers = new ArrayList<Subscriber>();
+		running = true;
+		// after the encoder, which must learn of the change first
+		game.addGameListener(this);
+	}
+
+	/**
+	 * Encodes the game when it ticked, and wakes the thread writing to the
+	 * spectators
+	 */
+	public void gameChanged(Game game) {
+		if (game.getTicks() == ticks) {
+			return;
+		}
+		ticks = game.getTicks();
+		if (keyframeWanted.compareAndSet(true, false)) {
+			encoder.requestKeyframe();
+		}
+		if (chunk.remaining() < SpectatorEncoder.MAX_FRAME_SIZE) {
+			chunk = ByteBuffer.allocateDirect(CHUNK_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+		}
+		int start = chunk.position();
+		encoder.encode(chunk);
+		ByteBuffer frame = chunk.duplicate();
+		frame.limit(chunk.position());
+		frame.position(start);
+		log[(int) (published & (LOG_SIZE - 1))] = frame.slice()
+				.asReadOnlyBuffer();
+		published++;
+		selector.wakeup();
+	}
+
+	/**
+	 * Starts writing to the spectators
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		thread = new Thread(new Runnable() {
+			public void run() {
+				broadcast();
+			}
+		}, "SpectatorBroadcaster");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Adds a spectator, from any thread. It is sent frames from the next
+	 * keyframe on.
+	 *
+	 * @param channel
+	 *            the socket of the spectator, made non-blocking
+	 * @throws IOException
+	 *             if the socket cannot be made non-blocking
+	 */
+	public void subscribe(SocketChannel channel) throws IOException {
+		channel.configureBlocking(false);
+		added.add(new Subscriber(channel));
+		selector.wakeup();
+	}
+
+	/*
+	 * Writes the frames to the spectators as they come, until closed
+	 */
+	private void broadcast() {
+		try {
+			while (running) {
+				selector.select();
+				register();
+				Iterator<SelectionKey> selected = selector.selectedKeys()
+						.iterator();
+				while (selected.hasNext()) {
+					SelectionKey key = selected.next();
+					selected.remove();
+					if (key.isValid() && key.isWritable()) {
+						((Subscriber) key.attachment()).blocked = false;
+					}
+				}
+				int kept = 0;
+				for (int i = 0; i < subscribers.size(); i++) {
+					Subscriber subscriber = subscribers.get(i);
+					if (subscriber.blocked || write(subscriber)) {
+						subscribers.set(kept++, subscriber);
+					}
+				}
+				while (subscribers.size() > kept) {
+					subscribers.remove(subscribers.size() - 1);
+				}
+				subscriberCount = kept;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (ClosedSelectorException e) {
+			// closed
+		}
+		for (int i = 0; i < subscribers.size(); i++) {
+			close(subscribers.get(i).channel);
+		}
+		subscribers.clear();
+		subscriberCount = 0;
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// closed anyway
+		}
+	}
+
+	/*
+	 * Watches the sockets of the spectators added since last time, and has a
+	 * keyframe made for them
+	 */
+	private void register() throws IOException {
+		Subscriber subscriber;
+		while ((subscriber = added.poll()) != null) {
+			subscriber.next = published;
+			subscriber.channel.register(selector, 0, subscriber);
+			subscribers.add(subscriber);
+			keyframeWanted.set(true);
+		}
+	}
+
+	/*
+	 * Writes the frames a spectator has not had, until its socket is full.
+	 * Returns false if the socket was closed.
+	 */
+	private boolean write(Subscriber subscriber) {
+		SocketChannel channel = subscriber.channel;
+		ByteBuffer[] batch = subscriber.batch;
+		try {
+			while (subscriber.batchStart < subscriber.batchEnd
+					|| fill(subscriber)) {
+				channel.write(batch, subscriber.batchStart, subscriber.batchEnd
+						- subscriber.batchStart);
+				while (subscriber.batchStart < subscriber.batchEnd
+						&& !batch[subscriber.batchStart].hasRemaining()) {
+					batch[subscriber.batchStart++] = null;
+				}
+				if (subscriber.batchStart < subscriber.batchEnd) {
+					// full: written again when writable
+					subscriber.blocked = true;
+					channel.keyFor(selector).interestOps(SelectionKey.OP_WRITE);
+					return true;
+				}
+			}
+			channel.keyFor(selector).interestOps(0);
+			return true;
+		} catch (IOException e) {
+			close(channel);
+			return false;
+		}
+	}
+
+	/*
+	 * Takes the next frames of the log for a spectator, dropping to the next
+	 * keyframe one too far behind. Returns false if there are none.
+	 */
+	private boolean fill(Subscriber subscriber) {
+		long last = published;
+		if (last - subscriber.next > MAX_LAG) {
+			subscriber.next = last;
+			subscriber.synced = false;
+			drops++;
+			keyframeWanted.set(true);
+			return false;
+		}
+		long first = subscriber.next;
+		if (!subscriber.synced) {
+			while (subscriber.next < last && frame(subscriber.next).get(0)
+					!= SpectatorEncoder.KEYFRAME) {
+				subscriber.next++;
+			}
+		}
+		int count = 0;
+		for (; subscriber.next < last && count < BATCH; subscriber.next++) {
+			subscriber.batch[count++] = frame(subscriber.next).duplicate();
+		}
+		if (published - first > LOG_SIZE) {
+			// the frames were overwritten while being taken
+			subscriber.next = published;
+			subscriber.synced = false;
+			drops++;
+			keyframeWanted.set(true);
+			return false;
+		}
+		subscriber.batchStart = 0;
+		subscriber.batchEnd = count;
+		if (count > 0) {
+			subscriber.synced = true;
+		}
+		return count > 0;
+	}
+
+	/*
+	 * Returns the given frame of the log
+	 */
+	private ByteBuffer frame(long n) {
+		return log[(int) (n & (LOG_SIZE - 1))];
+	}
+
+	/*
+	 * Closes a socket
+	 */
+	private static void close(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// closed anyway
+		}
+	}
+
+	/**
+	 * Returns the number of spectators written to
+	 */
+	public int getSubscriberCount() {
+		return subscriberCount;
+	}
+
+	/**
+	 * Returns the number of frames encoded
+	 */
+	public long getFrameCount() {
+		return published;
+	}
+
+	/**
+	 * Returns the number of times a spectator too far behind was dropped to
+	 * the next keyframe
+	 */
+	public long getDropCount() {
+		return drops;
+	}
+
+	/**
+	 * Stops listening to the game, and closes the sockets of the spectators
+	 */
+	public void close() throws IOException {
+		game.removeGameListener(this);
+		game.removeGameListener(encoder);
+		running = false;
+		synchronized (this) {
+			if (thread == null) {
+				// never started: nobody else closes them
+				Subscriber subscriber;
+				while ((subscriber = added.poll()) != null) {
+					close(subscriber.channel);
+				}
+				selector.close();
+				return;
+			}
+		}
+		selector.wakeup();
+	}
+}
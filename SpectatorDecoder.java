@@ -0,0 +1,373 @@
+import java.awt.Color;
+import java.nio.ByteBuffer;
+
+/**
+ * Rebuilds a game, as seen by a spectator, from the frames of a
+ * SpectatorEncoder: the squares of the grid, colors included, the piece and
+ * the counters, exactly as they were when each frame was made.
+ *
+ * A decoder that joins a stream late, or misses a frame, skips the deltas
+ * until the next keyframe: isSynced tells whether what it shows is current.
+ *
+ * @author MO-Productions
+ */
+public class SpectatorDecoder {
+
+	private Grid grid; // the squares of the game
+
+	private Color[] palette; // colors of the stream, EMPTY first
+
+	private int paletteSize; // number of colors in palette
+
+	private AbstractPiece[] shapes; // the piece of each type, once created
+
+	private AbstractPiece piece; // the piece dropping, or null
+
+	private int pieceType; // type of the piece, -1 if none
+
+	private long ticks;
+
+	private int lines;
+
+	private int pieces;
+
+	private boolean over; // is the game over?
+
+	private int sequence; // sequence number of the next frame
+
+	private boolean synced; // has every frame since a keyframe been read?
+
+	/**
+	 * Creates a decoder, waiting for a keyframe
+	 */
+	public SpectatorDecoder() {
+		grid = new Grid();
+		palette = new Color[Byte.MAX_VALUE + 1];
+		palette[0] = Grid.EMPTY;
+		paletteSize = 1;
+		shapes = new AbstractPiece[PieceGenerator.TYPES];
+		pieceType = -1;
+	}
+
+	/**
+	 * Reads a frame, from the position of the buffer, and applies it. A
+	 * delta that does not follow the last frame read is skipped, as are the
+	 * deltas after it until a keyframe.
+	 *
+	 * @param buffer
+	 *            the little endian buffer holding the frame; its position is
+	 *            moved past the frame
+	 * @return true if the frame was applied, false if it was skipped
+	 * @throws IllegalArgumentException
+	 *             if the frame is not a frame of a SpectatorEncoder
+	 */
+	public boolean decode(ByteBuffer buffer) {
+		byte type = buffer.get();
+		int end = (buffer.getShort() & 0xFFFF) + buffer.position();
+		int number = getVarInt(buffer);
+		if (type == SpectatorEncoder.KEYFRAME) {
+			readKeyframe(buffer);
+		} else if (type != SpectatorEncoder.DELTA) {
+			throw new IllegalArgumentException("Invalid frame type = " + type);
+		} else if (synced && number == sequence) {
+			readDelta(buffer);
+		} else {
+			synced = false;
+			buffer.position(end);
+			return false;
+		}
+		if (buffer.position() != end) {
+			throw new IllegalArgumentException("Invalid frame length = "
+					+ (end - buffer.position()));
+		}
+		sequence = number + 1;
+		synced = true;
+		return true;
+	}
+
+	/*
+	 * Reads the whole game
+	 */
+	private void readKeyframe(ByteBuffer buffer) {
+		ticks = getVarLong(buffer);
+		paletteSize = buffer.get() & 0xFF;
+		for (int i = 1; i < paletteSize; i++) {
+			palette[i] = new Color(buffer.getInt(), true);
+		}
+		grid.removeRows((1 << Grid.HEIGHT) - 1);
+		for (int row = 0; row < Grid.HEIGHT; row++) {
+			int bits = getVarInt(buffer);
+			while (bits != 0) {
+				setSquare(row, Integer.numberOfTrailingZeros(bits), buffer.get());
+				bits &= bits - 1;
+			}
+		}
+		readPiece(buffer);
+		lines = getVarInt(buffer);
+		pieces = getVarInt(buffer);
+		over = buffer.get() != 0;
+	}
+
+	/*
+	 * Reads what changed since the last frame, in the order the encoder
+	 * wrote it
+	 */
+	private void readDelta(ByteBuffer buffer) {
+		ticks += getVarLong(buffer);
+		int flags = buffer.get();
+		if ((flags & SpectatorEncoder.PALETTE) != 0) {
+			for (int count = buffer.get(); count > 0; count--) {
+				addColor(new Color(buffer.getInt(), true));
+			}
+		}
+		if ((flags & SpectatorEncoder.CLEAR) != 0) {
+			removeRows(getVarInt(buffer));
+		}
+		if ((flags & SpectatorEncoder.GARBAGE) != 0) {
+			addGarbage(buffer.get(), buffer.get(), buffer.get());
+		}
+		if ((flags & SpectatorEncoder.ROWS) != 0) {
+			for (int count = buffer.get(); count > 0; count--) {
+				int row = buffer.get();
+				int bits = getVarInt(buffer);
+				while (bits != 0) {
+					setSquare(row, Integer.numberOfTrailingZeros(bits), buffer
+							.get());
+					bits &= bits - 1;
+				}
+			}
+		}
+		if ((flags & SpectatorEncoder.PIECE) != 0) {
+			readPiece(buffer);
+		}
+		if ((flags & SpectatorEncoder.COUNTERS) != 0) {
+			lines = getVarInt(buffer);
+			pieces = getVarInt(buffer);
+		}
+		if ((flags & SpectatorEncoder.OVER) != 0) {
+			over = !over;
+		}
+	}
+
+	/*
+	 * Reads the type of the piece, then its orientation, row and column if
+	 * there is one
+	 */
+	private void readPiece(ByteBuffer buffer) {
+		int type = buffer.get();
+		if (type < 0) {
+			setPiece(-1, 0, 0, 0);
+		} else {
+			setPiece(type, buffer.get(), buffer.get(), buffer.get());
+		}
+	}
+
+	/**
+	 * Adds a color to the palette of the stream
+	 *
+	 * @param c
+	 *            the color
+	 * @return its index, or -1 if the palette is full
+	 */
+	int addColor(Color c) {
+		if (paletteSize == palette.length) {
+			return -1;
+		}
+		palette[paletteSize] = c;
+		return paletteSize++;
+	}
+
+	/**
+	 * Returns the index of a color in the palette of the stream, or -1 if it
+	 * is not there
+	 *
+	 * @param c
+	 *            the color
+	 */
+	int indexOf(Color c) {
+		for (int i = 0; i < paletteSize; i++) {
+			if (palette[i] == c || palette[i].equals(c)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes rows of the grid, see Grid.removeRows
+	 *
+	 * @param mask
+	 *            the rows to remove
+	 */
+	void removeRows(int mask) {
+		grid.removeRows(mask);
+	}
+
+	/**
+	 * Pushes garbage rows in, see Grid.addGarbage
+	 *
+	 * @param count
+	 *            the number of rows
+	 * @param hole
+	 *            the column of the hole
+	 * @param color
+	 *            the palette index of the color of the rows
+	 */
+	void addGarbage(int count, int hole, int color) {
+		grid.addGarbage(count, hole, palette[color]);
+	}
+
+	/**
+	 * Sets a square of the grid
+	 *
+	 * @param row
+	 *            the row of the square
+	 * @param col
+	 *            the column of the square
+	 * @param color
+	 *            the palette index of its color, 0 for EMPTY
+	 */
+	void setSquare(int row, int col, int color) {
+		grid.set(row, col, palette[color]);
+	}
+
+	/**
+	 * Sets the piece
+	 *
+	 * @param type
+	 *            the type of the piece, -1 for none
+	 * @param orientation
+	 *            its orientation
+	 * @param row
+	 *            the row of its center square
+	 * @param col
+	 *            the column of its center square
+	 */
+	void setPiece(int type, int orientation, int row, int col) {
+		pieceType = type;
+		if (type < 0) {
+			piece = null;
+			return;
+		}
+		piece = shapes[type];
+		if (piece == null) {
+			piece = Game.createPiece(type, row, col, grid);
+			shapes[type] = piece;
+		}
+		piece.reset(row, col, orientation);
+	}
+
+	/**
+	 * Sets the counters
+	 *
+	 * @param ticks
+	 *            the ticks played
+	 * @param lines
+	 *            the rows removed
+	 * @param pieces
+	 *            the pieces locked
+	 * @param over
+	 *            is the game over?
+	 */
+	void setCounters(long ticks, int lines, int pieces, boolean over) {
+		this.ticks = ticks;
+		this.lines = lines;
+		this.pieces = pieces;
+		this.over = over;
+	}
+
+	/*
+	 * Reads an unsigned varint
+	 */
+	static int getVarInt(ByteBuffer buffer) {
+		return (int) getVarLong(buffer);
+	}
+
+	/*
+	 * Reads an unsigned varint
+	 */
+	static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the frames read since the last keyframe followed each
+	 * other: the game shown is the one encoded
+	 */
+	public boolean isSynced() {
+		return synced;
+	}
+
+	/**
+	 * Returns the grid of the game
+	 */
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Returns the piece dropping, or null if none is
+	 */
+	public AbstractPiece getPiece() {
+		return piece;
+	}
+
+	/**
+	 * Returns the type of the piece dropping, or -1 if none is
+	 */
+	public int getPieceType() {
+		return pieceType;
+	}
+
+	/**
+	 * Returns the number of colors in the palette of the stream
+	 */
+	int getPaletteSize() {
+		return paletteSize;
+	}
+
+	/**
+	 * Returns a color of the palette of the stream
+	 *
+	 * @param index
+	 *            the index of the color
+	 */
+	Color getPaletteColor(int index) {
+		return palette[index];
+	}
+
+	/**
+	 * Returns the number of ticks played
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Returns the number of rows removed
+	 */
+	public int getLines() {
+		return lines;
+	}
+
+	/**
+	 * Returns the number of pieces locked
+	 */
+	public int getPieces() {
+		return pieces;
+	}
+
+	/**
+	 * Returns true if the game is over
+	 */
+	public boolean isGameOver() {
+		return over;
+	}
+}
@@ -0,0 +1,377 @@
+import java.awt.Color;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a game for spectators as a stream of frames, each holding only
+ * what changed since the frame before: the piece when it moved, the rows
+ * removed as a bitmask, the garbage rows pushed in, and the squares still
+ * differing after these, row by row. A SpectatorDecoder rebuilds the game
+ * exactly from them. A move then takes a few bytes instead of the 200
+ * squares of the grid.
+ *
+ * Every KEYFRAME_INTERVAL frames, or when asked (see requestKeyframe), the
+ * frame is a keyframe holding the whole game instead, so that spectators
+ * joining late or missing frames catch up.
+ *
+ * The encoder listens to the game, to learn which rows each move removed.
+ * It keeps a decoder of its own frames, the game as the spectators have it,
+ * and compares the game against it for every frame: the frames are exact
+ * whatever happened in between, e.g. Game.restore.
+ *
+ * A frame is a type byte (KEYFRAME or DELTA), the length of the rest in 2
+ * bytes, then its sequence number and the ticks (since the previous frame
+ * for a delta), as unsigned varints. A keyframe then holds the palette, the
+ * squares of each row, the piece and the counters. A delta holds a byte of
+ * flags (PALETTE, CLEAR, GARBAGE, ROWS, PIECE, COUNTERS, OVER) telling which
+ * parts follow, in that order. Numbers are little endian.
+ *
+ * @author MO-Productions
+ */
+public class SpectatorEncoder implements GameListener {
+
+	public static final byte KEYFRAME = 1;
+
+	public static final byte DELTA = 2;
+
+	// frames from one keyframe to the next
+	public static final int KEYFRAME_INTERVAL = 2 * GameLoop.TICKS_PER_SECOND;
+
+	// bytes a frame can take, a keyframe of 127 colors included
+	public static final int MAX_FRAME_SIZE = 1024;
+
+	// the parts of a delta, in its flags
+	static final int PALETTE = 1; // count, then each new color
+
+	static final int CLEAR = 2; // bitmask of the rows removed
+
+	static final int GARBAGE = 4; // count, hole, color
+
+	static final int ROWS = 8; // count, then row, columns, color of each
+
+	static final int PIECE = 16; // type, orientation, row, column
+
+	static final int COUNTERS = 32; // rows removed, pieces locked
+
+	static final int OVER = 64; // the game ended, or started again
+
+	private Game game;
+
+	private SpectatorDecoder shadow; // the game as the spectators have it
+
+	private byte[] cells; // palette index of each square of the game
+
+	private int[] changed; // columns of each row differing from the shadow
+
+	private int cleared; // rows removed since the last frame, in the shadow
+
+	private int garbage; // garbage rows pushed in since the last frame
+
+	private int garbageHole;
+
+	private Color garbageColor;
+
+	private int lines; // rows removed by the game, when last told
+
+	private long garbageRows; // garbage rows of the grid, when last told
+
+	private int sequence; // sequence number of the next frame
+
+	private int sinceKeyframe; // frames since the last keyframe
+
+	private boolean keyframeWanted;
+
+	/**
+	 * Creates an encoder of the given game, listening to it. The first frame
+	 * is a keyframe.
+	 *
+	 * @param game
+	 *            the game to encode
+	 */
+	public SpectatorEncoder(Game game) {
+		this.game = game;
+		shadow = new SpectatorDecoder();
+		cells = new byte[Grid.HEIGHT * Grid.WIDTH];
+		changed = new int[Grid.HEIGHT];
+		lines = game.getLines();
+		garbageRows = game.getGrid().getGarbageRows();
+		keyframeWanted = true;
+		game.addGameListener(this);
+	}
+
+	/**
+	 * Notes the rows removed and the garbage pushed in by the change, to send
+	 * them as such rather than square by square
+	 */
+	public void gameChanged(Game game) {
+		Grid grid = game.getGrid();
+		if (game.getLines() != lines) {
+			// rows removed after garbage in the same frame go as squares
+			if (game.getLines() > lines && garbage == 0) {
+				cleared |= toShadowRows(grid.getClearedRows());
+			}
+			lines = game.getLines();
+		}
+		if (grid.getGarbageRows() != garbageRows) {
+			int hole = Integer.numberOfTrailingZeros(~grid
+					.getRow(Grid.HEIGHT - 1)
+					& Grid.FULL_ROW);
+			// garbage pushed in twice in a frame goes as squares
+			if (garbage == 0 && hole < Grid.WIDTH) {
+				garbage = (int) Math.min(Grid.HEIGHT, grid.getGarbageRows()
+						- garbageRows);
+				garbageHole = hole;
+				garbageColor = grid.getColor(Grid.HEIGHT - 1, hole == 0 ? 1
+						: 0);
+			}
+			garbageRows = grid.getGarbageRows();
+		}
+	}
+
+	/*
+	 * Returns the rows of the shadow that the given rows of the grid were,
+	 * the rows removed since the last frame being gone from the grid
+	 */
+	private int toShadowRows(int rows) {
+		// rows of the grid from the top, after the rows come in at the top
+		int row = Integer.bitCount(cleared);
+		int shadowRows = 0;
+		for (int r = 0; r < Grid.HEIGHT; r++) {
+			if ((cleared & (1 << r)) == 0) {
+				if ((rows & (1 << row)) != 0) {
+					shadowRows |= 1 << r;
+				}
+				row++;
+			}
+		}
+		return shadowRows;
+	}
+
+	/**
+	 * Makes the next frame a keyframe, e.g. for a spectator joining
+	 */
+	public void requestKeyframe() {
+		keyframeWanted = true;
+	}
+
+	/**
+	 * Writes the frame of what changed since the last frame, or a keyframe
+	 *
+	 * @param buffer
+	 *            the little endian buffer to write to, with MAX_FRAME_SIZE
+	 *            bytes remaining
+	 * @return the length of the frame
+	 */
+	public int encode(ByteBuffer buffer) {
+		int start = buffer.position();
+		if (keyframeWanted || sinceKeyframe >= KEYFRAME_INTERVAL
+				|| !writeDelta(buffer)) {
+			buffer.position(start);
+			writeKeyframe(buffer);
+		}
+		buffer.putShort(start + 1, (short) (buffer.position() - start - 3));
+		sequence++;
+		return buffer.position() - start;
+	}
+
+	/*
+	 * Writes the whole game, and makes the shadow the game again
+	 */
+	private void writeKeyframe(ByteBuffer buffer) {
+		int start = buffer.position();
+		buffer.put(KEYFRAME).putShort((short) 0);
+		putVarLong(buffer, sequence);
+		putVarLong(buffer, game.getTicks());
+		Grid grid = game.getGrid();
+		buffer.put((byte) grid.getPaletteSize());
+		for (int i = 1; i < grid.getPaletteSize(); i++) {
+			buffer.putInt(grid.getPaletteColor(i).getRGB());
+		}
+		grid.copyCells(cells);
+		for (int row = 0; row < Grid.HEIGHT; row++) {
+			int bits = grid.getRow(row);
+			putVarLong(buffer, bits);
+			while (bits != 0) {
+				int col = Integer.numberOfTrailingZeros(bits);
+				buffer.put(cells[row * Grid.WIDTH + col]);
+				bits &= bits - 1;
+			}
+		}
+		putPiece(buffer);
+		putVarLong(buffer, game.getLines());
+		putVarLong(buffer, game.getPieces());
+		buffer.put((byte) (game.isGameOver() ? 1 : 0));
+
+		// the spectators now have the game as it is
+		ByteBuffer frame = buffer.duplicate();
+		frame.order(buffer.order()).flip().position(start);
+		frame.putShort(start + 1, (short) (buffer.position() - start - 3));
+		shadow.decode(frame);
+		cleared = 0;
+		garbage = 0;
+		sinceKeyframe = 0;
+		keyframeWanted = false;
+	}
+
+	/*
+	 * Writes what changed since the last frame, applying it to the shadow as
+	 * it goes. Returns false if a new color does not fit in the palette: a
+	 * keyframe must be sent instead.
+	 */
+	private boolean writeDelta(ByteBuffer buffer) {
+		Grid grid = game.getGrid();
+		buffer.put(DELTA).putShort((short) 0);
+		putVarLong(buffer, sequence);
+		putVarLong(buffer, game.getTicks() - shadow.getTicks());
+		int flagsAt = buffer.position();
+		buffer.put((byte) 0);
+		int flags = 0;
+
+		// the rows moved first, then the colors the squares need
+		int paletteStart = shadow.getPaletteSize();
+		int garbageIndex = 0;
+		if (garbage > 0) {
+			garbageIndex = colorIndex(garbageColor);
+			if (garbageIndex < 0) {
+				return false;
+			}
+		}
+		if (cleared != 0) {
+			shadow.removeRows(cleared);
+		}
+		if (garbage > 0) {
+			shadow.addGarbage(garbage, garbageHole, garbageIndex);
+		}
+		int rowCount = 0;
+		Grid seen = shadow.getGrid();
+		for (int row = 0; row < Grid.HEIGHT; row++) {
+			int bits = grid.getRow(row);
+			int diff = bits ^ seen.getRow(row);
+			// squares occupied in both, of another color
+			int both = bits & seen.getRow(row);
+			while (both != 0) {
+				int col = Integer.numberOfTrailingZeros(both);
+				if (!grid.getColor(row, col).equals(seen.getColor(row, col))) {
+					diff |= 1 << col;
+				}
+				both &= both - 1;
+			}
+			changed[row] = diff;
+			if (diff != 0) {
+				rowCount++;
+				for (int set = diff & bits; set != 0; set &= set - 1) {
+					int col = Integer.numberOfTrailingZeros(set);
+					if (colorIndex(grid.getColor(row, col)) < 0) {
+						return false;
+					}
+				}
+			}
+		}
+
+		if (shadow.getPaletteSize() > paletteStart) {
+			flags |= PALETTE;
+			buffer.put((byte) (shadow.getPaletteSize() - paletteStart));
+			for (int i = paletteStart; i < shadow.getPaletteSize(); i++) {
+				buffer.putInt(shadow.getPaletteColor(i).getRGB());
+			}
+		}
+		if (cleared != 0) {
+			flags |= CLEAR;
+			putVarLong(buffer, cleared);
+			cleared = 0;
+		}
+		if (garbage > 0) {
+			flags |= GARBAGE;
+			buffer.put((byte) garbage).put((byte) garbageHole).put(
+					(byte) garbageIndex);
+			garbage = 0;
+		}
+		if (rowCount > 0) {
+			flags |= ROWS;
+			buffer.put((byte) rowCount);
+			for (int row = 0; row < Grid.HEIGHT; row++) {
+				int diff = changed[row];
+				if (diff == 0) {
+					continue;
+				}
+				buffer.put((byte) row);
+				putVarLong(buffer, diff);
+				for (; diff != 0; diff &= diff - 1) {
+					int col = Integer.numberOfTrailingZeros(diff);
+					int color = grid.isSet(row, col) ? colorIndex(grid
+							.getColor(row, col)) : 0;
+					buffer.put((byte) color);
+					shadow.setSquare(row, col, color);
+				}
+			}
+		}
+		AbstractPiece piece = game.getPiece();
+		AbstractPiece shown = shadow.getPiece();
+		if (piece == null ? shown != null : shown == null
+				|| game.getPieceType() != shadow.getPieceType()
+				|| piece.getOrientation() != shown.getOrientation()
+				|| piece.getRow() != shown.getRow()
+				|| piece.getCol() != shown.getCol()) {
+			flags |= PIECE;
+			putPiece(buffer);
+		}
+		if (game.getLines() != shadow.getLines()
+				|| game.getPieces() != shadow.getPieces()) {
+			flags |= COUNTERS;
+			putVarLong(buffer, game.getLines());
+			putVarLong(buffer, game.getPieces());
+		}
+		if (game.isGameOver() != shadow.isGameOver()) {
+			flags |= OVER;
+		}
+		buffer.put(flagsAt, (byte) flags);
+		shadow.setCounters(game.getTicks(), game.getLines(), game.getPieces(),
+				game.isGameOver());
+		sinceKeyframe++;
+		return true;
+	}
+
+	/*
+	 * Writes the type of the piece, then its orientation, row and column if
+	 * there is one, and sets it in the shadow
+	 */
+	private void putPiece(ByteBuffer buffer) {
+		AbstractPiece piece = game.getPiece();
+		if (piece == null) {
+			buffer.put((byte) -1);
+			shadow.setPiece(-1, 0, 0, 0);
+		} else {
+			buffer.put((byte) game.getPieceType()).put(
+					(byte) piece.getOrientation()).put((byte) piece.getRow())
+					.put((byte) piece.getCol());
+			shadow.setPiece(game.getPieceType(), piece.getOrientation(), piece
+					.getRow(), piece.getCol());
+		}
+	}
+
+	/*
+	 * Returns the index of a color in the palette of the stream, adding it
+	 * if need be, or -1 if the palette is full
+	 */
+	private int colorIndex(Color c) {
+		int index = shadow.indexOf(c);
+		return index >= 0 ? index : shadow.addColor(c);
+	}
+
+	/*
+	 * Writes an unsigned varint
+	 */
+	private static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Returns the sequence number of the next frame
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+}
@@ -67,6 +67,20 @@ public class Square {
 		return col;
 	}
 
+	/**
+	 * Places this Square at the given location. The caller is responsible for
+	 * checking that the location is free.
+	 * 
+	 * @param row
+	 *            the new row of this Square in the Grid
+	 * @param col
+	 *            the new column of this Square in the Grid
+	 */
+	public void setLocation(int row, int col) {
+		this.row = row;
+		this.col = col;
+	}
+
 	/**
 	 * Returns true if this Square can move 1 spot in direction d
 	 * 
@@ -161,6 +175,23 @@ public class Square {
 	 * Draws this square on the given graphics context
 	 */
 	public void draw(Graphics g) {
+		draw(g, row, col, color);
+	}
+
+	/**
+	 * Draws a square of the given color at (row, col) on the given graphics
+	 * context
+	 * 
+	 * @param g
+	 *            the graphics context
+	 * @param row
+	 *            the row of the square in the Grid
+	 * @param col
+	 *            the column of the square in the Grid
+	 * @param color
+	 *            the color of the square
+	 */
+	public static void draw(Graphics g, int row, int col, Color color) {
 
 		// calculate the upper left (x,y) coordinate of this square
 		int actualX = Grid.LEFT + col * WIDTH;
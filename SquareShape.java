@@ -14,6 +14,14 @@ import java.awt.Color;
  */
 
 public class SquareShape extends AbstractPiece implements Piece {
+
+	// offsets of the squares from the center square[1]: a square looks the
+	// same in every orientation, so it never moves when rotated
+	private static final int[] OFFSETS = { 0, -1, 0, 0, 1, -1, 1, 0 };
+
+	private static final int[][] ROTATIONS = { OFFSETS, OFFSETS, OFFSETS,
+			OFFSETS };
+
 	/**
 	 * Creates an Square-Shape piece. See class description for actual location of r
 	 * and c
@@ -30,6 +38,7 @@ public class SquareShape extends AbstractPiece implements Piece {
 		grid = g;
 		square = new Square[PIECE_COUNT];
 		ableToMove = true;
+		rotations = ROTATIONS;
 
 		// Create the squares
 		// square[1] is center
@@ -38,12 +47,6 @@ public class SquareShape extends AbstractPiece implements Piece {
 		square[2] = new Square(g, r + 1, c - 1, Color.GRAY, true);
 		square[3] = new Square(g, r + 1, c, Color.GRAY, true);
 	}
-	
-	// square doesn't rotate
-	@Override
-	public void rotate(){
-		
-	}
 
 
 }
@@ -7,28 +7,145 @@
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.management.JMException;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
-public class Tetris extends JPanel {
+public class Tetris extends JPanel implements GameListener {
 
 	private Game game;
 
+	private GameRenderer renderer; // draws the game from cached images
+
+	private GameLoop loop; // plays the game and calls frame for every frame
+
+	// hands the state of the game from the loop to the event thread
+	private SnapshotBuffer snapshots;
+
+	private ReplayRecorder recorder; // records the game, or null
+
+	private Path replayFile; // where the replay is saved, or null
+
+	private GameMetrics metrics; // measures the game, seen through JMX
+
+	// rows and columns of the piece drawn at the last frame, falling included
+	private int pieceTop, pieceBottom = -1, pieceLeft, pieceRight = -1;
+
+	private static final Font GAME_OVER_FONT = new Font("Palatino", Font.BOLD,
+			40);
+
 	/**
 	 * Sets up the parts for the Tetris game, display and user control
 	 */
 	public Tetris() {
+		this(null);
+	}
+
+	/**
+	 * Sets up the parts for the Tetris game, display and user control, and
+	 * saves the replay of the game when it is over
+	 * 
+	 * @param replayFile
+	 *            the file the replay is saved to, or null for none
+	 */
+	public Tetris(Path replayFile) {
+		renderer = new GameRenderer();
+		snapshots = new SnapshotBuffer();
 		game = new Game(this);
+		metrics = new GameMetrics();
+		game.setMetrics(metrics);
+		try {
+			metrics.register();
+		} catch (JMException e) {
+			System.err.println("Cannot register the metrics: " + e);
+		}
+		if (replayFile != null) {
+			this.replayFile = replayFile;
+			recorder = new ReplayRecorder(game);
+		}
+		snapshots.publish(game);
 		JFrame f = new JFrame("The Tetris Game");
 		f.add(this);
 		f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		f.setSize(400, 550);
 		f.setVisible(true);
-		EventController ec = new EventController(game);
+		loop = new GameLoop(game, new Runnable() {
+			@Override
+			public void run() {
+				frame();
+			}
+		});
+		InputQueue queue = new InputQueue();
+		loop.setInput(new AutoRepeat(queue));
+		EventController ec = new EventController(loop, queue);
 		f.addKeyListener(ec);
 		setBackground(Color.YELLOW);
+		loop.start();
+	}
+
+	/*
+	 * Repaints the falling piece, which moves a little lower every frame
+	 * between the ticks that move it a row down
+	 */
+	private void frame() {
+		int top = Grid.HEIGHT, bottom = -1, left = Grid.WIDTH, right = -1;
+		synchronized (game) {
+			AbstractPiece piece = game.getPiece();
+			if (piece != null) {
+				for (int i = 0; i < piece.getSquareCount(); i++) {
+					top = Math.min(top, piece.getSquareRow(i));
+					bottom = Math.max(bottom, piece.getSquareRow(i));
+					left = Math.min(left, piece.getSquareCol(i));
+					right = Math.max(right, piece.getSquareCol(i));
+				}
+				bottom++; // the piece may be drawn over the row below it
+			}
+		}
+		// where the piece is, and where it was drawn at the last frame
+		if (pieceTop <= pieceBottom) {
+			repaintSquares(Math.min(top, pieceTop), Math.max(bottom,
+					pieceBottom), Math.min(left, pieceLeft), Math.max(right,
+					pieceRight));
+		} else if (top <= bottom) {
+			repaintSquares(top, bottom, left, right);
+		}
+		pieceTop = top;
+		pieceBottom = bottom;
+		pieceLeft = left;
+		pieceRight = right;
+	}
+
+	/*
+	 * Repaints the squares from rows top to bottom and columns left to right
+	 */
+	private void repaintSquares(int top, int bottom, int left, int right) {
+		int x = Grid.LEFT + left * Square.WIDTH;
+		int y = Grid.TOP + top * Square.HEIGHT;
+		// + 1 for the black border drawn around each square
+		int w = (right - left + 1) * Square.WIDTH + 1;
+		int h = (bottom - top + 1) * Square.HEIGHT + 1;
+		repaint(x, y, w, h);
+	}
+
+	/*
+	 * Returns the number of pixels the piece of the given snapshot has fallen
+	 * below its row, as of the last frame
+	 */
+	private int getPieceOffset(GameSnapshot snapshot) {
+		if (loop == null || snapshot.getDropDistance() == 0) {
+			return 0;
+		}
+		double fall = snapshot.getFall() + loop.getAlpha()
+				* snapshot.getGravity();
+		return (int) (Math.min(fall, 1) * Square.HEIGHT);
 	}
 
 	/**
@@ -38,24 +155,77 @@ public class Tetris extends JPanel {
 		repaint();
 	}
 
+	/**
+	 * Updates the part of the display where squares of the game changed, or
+	 * all of it when the game is over
+	 */
+	public void gameChanged(Game game) {
+		// the snapshot is published before the repaint that draws it
+		snapshots.publish(game);
+		if (game.isGameOver()) {
+			update();
+			saveReplay();
+		} else if (game.isDirty()) {
+			repaintSquares(game.getDirtyTop(), game.getDirtyBottom(), game
+					.getDirtyLeft(), game.getDirtyRight());
+		}
+		game.clearDirty();
+	}
+
+	/*
+	 * Saves the replay of the game, once
+	 */
+	private void saveReplay() {
+		if (recorder == null) {
+			return;
+		}
+		try {
+			Files.write(replayFile, recorder.toByteArray());
+		} catch (IOException e) {
+			System.err.println("Cannot save the replay: " + e);
+		}
+		recorder = null;
+	}
+
 	/**
 	 * Paint the current state of the game
 	 */
 	public void paintComponent(Graphics g) {
+		long start = System.nanoTime();
+		RepaintEvent event = null;
+		if (RepaintEvent.isOn()) {
+			event = new RepaintEvent();
+			event.begin();
+		}
 		super.paintComponent(g);
-		game.draw(g);
-		if (game.isGameOver()) {
-			g.setFont(new Font("Palatino", Font.BOLD, 40));
+		// the game loop plays the game on its own thread: only its latest
+		// snapshot is drawn, without holding up the loop
+		GameSnapshot snapshot = snapshots.take();
+		renderer.draw(g, snapshot, getPieceOffset(snapshot));
+		if (snapshot.isGameOver()) {
+			g.setFont(GAME_OVER_FONT);
 			g.setColor(Color.BLACK);
 			g.drawString("GAME OVER", 80, 300);
 		}
+		metrics.getRepaintHistogram().record(System.nanoTime() - start);
+		if (event != null) {
+			Rectangle clip = g.getClipBounds();
+			event.area = clip == null ? getWidth() * getHeight() : clip.width
+					* clip.height;
+			event.pieceType = snapshot.getPieceType();
+			event.commit();
+		}
 	}
 
-	public static void main(String[] args) {
+	/**
+	 * Starts a game. With a file name argument, the replay of the game is
+	 * saved to that file, e.g. java Tetris game.replay
+	 */
+	public static void main(final String[] args) {
 		SwingUtilities.invokeLater(new Runnable() {
 			@Override
 			public void run() {
-				new Tetris();
+				new Tetris(args.length > 0 ? Paths.get(args[0]) : null);
 			}
 		});
 	}
@@ -1,6 +1,31 @@
 import static org.junit.Assert.*;
 
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import org.junit.Test;
 
@@ -146,6 +171,35 @@ public class TetrisUnitTest {
 		}
 	}
 
+	/**
+	 * Tests the row bitmasks and colors kept by the grid
+	 */
+	@Test
+	public void testGridBitboard() {
+		Grid g = new Grid();
+		g.set(3, 0, Color.RED);
+		g.set(3, 9, new Color(255, 0, 0));
+		assertTrue(g.isSet(3, 0) && g.isSet(3, 9));
+		assertEquals(1 | 1 << 9, g.getRow(3));
+		assertEquals(Color.RED, g.getColor(3, 9));
+
+		// columns and rows outside the grid are never free
+		assertFalse(g.isFree(3, Grid.mask(0)));
+		assertTrue(g.isFree(3, Grid.mask(1)));
+		assertFalse(g.isFree(3, Grid.mask(-1)));
+		assertFalse(g.isFree(3, Grid.mask(Grid.WIDTH)));
+		assertFalse(g.isFree(Grid.HEIGHT, Grid.mask(1)));
+
+		for (int c = 0; c < Grid.WIDTH; c++) {
+			g.set(3, c, Color.GREEN);
+		}
+		assertTrue(g.isRowFull(3));
+		g.set(3, 4, Grid.EMPTY);
+		assertFalse(g.isRowFull(3));
+		assertFalse(g.isSet(3, 4));
+		assertEquals(Grid.EMPTY, g.getColor(3, 4));
+	}
+
 	@Test
 	public void checkCanRotate(){
 		Grid g = new Grid();
@@ -154,6 +208,1046 @@ public class TetrisUnitTest {
 		assertTrue(!testPiece.canRotate());
 	}
 	
+	/**
+	 * Tests rotating a piece through its rotation table
+	 */
+	@Test
+	public void testCheckRowsCompaction() {
+		// rows 19, 17 and 14 full, the rows between them each of its own
+		// square and color
+		Grid g = new Grid();
+		for (int r = 10; r < Grid.HEIGHT; r++) {
+			Color c = new Color(10 * r, 0, 0);
+			if (r == 19 || r == 17 || r == 14) {
+				for (int col = 0; col < Grid.WIDTH; col++) {
+					g.set(r, col, c);
+				}
+			} else {
+				g.set(r, r % Grid.WIDTH, c);
+			}
+		}
+		assertEquals(3, g.checkRows());
+		assertEquals(1 << 19 | 1 << 17 | 1 << 14, g.getClearedRows());
+		// the rows left moved down by the rows removed below them
+		int[] kept = { 18, 16, 15, 13, 12, 11, 10 };
+		for (int i = 0; i < kept.length; i++) {
+			int r = Grid.HEIGHT - 1 - i;
+			assertEquals(1 << (kept[i] % Grid.WIDTH), g.getRow(r));
+			assertEquals(new Color(10 * kept[i], 0, 0), g.getColor(r,
+					kept[i] % Grid.WIDTH));
+		}
+		for (int r = 0; r < Grid.HEIGHT - kept.length; r++) {
+			assertEquals(0, g.getRow(r));
+		}
+		assertCompacted(g);
+
+		// a row of the grid moves down with the rows above a row removed below
+		// it, and is still removed once full
+		Grid h = new Grid();
+		for (int col = 1; col < Grid.WIDTH; col++) {
+			h.set(5, col, Color.BLUE);
+		}
+		h.set(12, 0, Color.RED);
+		assertEquals(0, h.checkRows());
+		for (int col = 1; col < Grid.WIDTH; col++) {
+			h.set(12, col, Color.RED);
+		}
+		assertEquals(1, h.checkRows());
+		assertEquals(1 << 12, h.getClearedRows());
+		assertEquals(Grid.FULL_ROW & ~1, h.getRow(6));
+		assertEquals(Color.BLUE, h.getColor(6, 1));
+		assertEquals(0, h.getRow(5));
+		assertCompacted(h);
+		h.set(6, 0, Color.BLUE);
+		assertEquals(1, h.checkRows());
+		assertEquals(1 << 6, h.getClearedRows());
+		for (int r = 0; r < Grid.HEIGHT; r++) {
+			assertEquals(0, h.getRow(r));
+		}
+		assertCompacted(h);
+	}
+
+	/*
+	 * Checks the hash and the column tops of a grid against a grid built
+	 * square by square
+	 */
+	private static void assertCompacted(Grid g) {
+		Grid built = new Grid();
+		for (int r = 0; r < Grid.HEIGHT; r++) {
+			for (int c = 0; c < Grid.WIDTH; c++) {
+				if (g.isSet(r, c)) {
+					built.set(r, c, g.getColor(r, c));
+				}
+			}
+		}
+		assertEquals(built.getHash(), g.getHash());
+		for (int c = 0; c < Grid.WIDTH; c++) {
+			assertEquals(built.getColumnTop(c), g.getColumnTop(c));
+		}
+	}
+
+	@Test
+	public void testRotateLShape() {
+		Grid g = new Grid();
+		LShape ls = new LShape(5, 4, g);
+		Point[] start = ls.getLocations();
+
+		// a quarter turn lays the L down around its center (5, 4)
+		ls.rotate();
+		assertEquals(1, ls.getOrientation());
+		Point[] p = ls.getLocations();
+		assertEquals(new Point(5, 5), p[0]);
+		assertEquals(new Point(5, 4), p[1]);
+		assertEquals(new Point(5, 3), p[2]);
+		assertEquals(new Point(6, 3), p[3]);
+
+		// blocked when a square of the next orientation is occupied
+		g.set(4, 3, Color.RED);
+		assertFalse(ls.canRotate());
+		g.set(4, 3, Grid.EMPTY);
+
+		// four quarter turns bring the piece back where it started
+		for (int i = 0; i < 3; i++) {
+			ls.rotate();
+		}
+		assertEquals(0, ls.getOrientation());
+		assertArrayEquals(start, ls.getLocations());
+
+		// a square shape never moves when rotated
+		SquareShape sq = new SquareShape(5, 4, g);
+		start = sq.getLocations();
+		sq.rotate();
+		assertArrayEquals(start, sq.getLocations());
+	}
+
+	/**
+	 * Plays a whole game without a display
+	 */
+	@Test
+	public void testHeadlessGame() {
+		final int[] changes = { 0 };
+		Game game = new Game(new GameListener() {
+			public void gameChanged(Game game) {
+				changes[0]++;
+			}
+		});
+		int moves = 0;
+		while (!game.isGameOver()) {
+			game.movePiece(Direction.DROP);
+			moves++;
+		}
+		assertEquals(moves, changes[0]);
+	}
+
+	/**
+	 * Tests the seeded piece generators
+	 */
+	@Test
+	public void testPieceGenerators() {
+		// the same seed gives the same pieces, and the preview shows them
+		PieceGenerator a = new UniformGenerator(42, 3);
+		PieceGenerator b = new UniformGenerator(42, 3);
+		for (int i = 0; i < 100; i++) {
+			int upcoming = a.peek(2);
+			assertEquals(b.next(), a.next());
+			assertEquals(upcoming, a.peek(1));
+		}
+
+		// every bag of 7 pieces holds each piece once
+		PieceGenerator bag = new BagGenerator(7);
+		for (int n = 0; n < 10; n++) {
+			boolean[] seen = new boolean[PieceGenerator.TYPES];
+			for (int i = 0; i < PieceGenerator.TYPES; i++) {
+				int type = bag.next();
+				assertFalse(seen[type]);
+				seen[type] = true;
+			}
+		}
+	}
+
+	/**
+	 * Tests that a batch of seeded games gives the same results every time
+	 */
+	@Test
+	public void testBatchSimulator() {
+		BatchSimulator simulator = new BatchSimulator(RandomPolicy::forGame);
+		BatchResult a = simulator.run(100, 16);
+		BatchResult b = simulator.run(100, 16);
+		assertEquals(16, a.getCount());
+		for (int i = 0; i < a.getCount(); i++) {
+			assertTrue(a.getPieces(i) > 0);
+			assertEquals(a.getPieces(i), b.getPieces(i));
+			assertEquals(a.getLines(i), b.getLines(i));
+			assertEquals(a.getMoves(i), b.getMoves(i));
+		}
+
+		// on the same pieces, the random policy still plays every game its own
+		// way
+		simulator = new BatchSimulator(RandomPolicy::forGame,
+				seed -> new BagGenerator(0), 100, ForkJoinPool.commonPool());
+		a = simulator.run(0, 16);
+		boolean same = true;
+		for (int i = 1; i < a.getCount(); i++) {
+			same &= a.getPieces(i) == a.getPieces(0);
+		}
+		assertFalse(same);
+	}
+
+	/**
+	 * Tests that the computer player clears rows and survives
+	 */
+	@Test
+	public void testAIPolicy() {
+		AIPolicy ai = new AIPolicy();
+		Game game = BatchSimulator.play(new Game(new BagGenerator(3)), ai, 500);
+		assertFalse(game.isGameOver());
+		assertEquals(500, game.getPieces());
+		// 500 pieces are 2000 squares: most rows must have been removed
+		assertTrue(game.getLines() >= (2000 - Grid.HEIGHT * Grid.WIDTH)
+				/ Grid.WIDTH);
+		assertTrue(ai.getEvaluations() > 500);
+	}
+
+	/**
+	 * Tests that the grid hash follows the squares through sets and row
+	 * removals, and that a search with lookahead reuses its results
+	 */
+	@Test
+	public void testZobristLookahead() {
+		Grid g = new Grid();
+		int[] rows = new int[Grid.HEIGHT];
+		for (int r = 12; r < Grid.HEIGHT; r++) {
+			for (int c = 0; c < Grid.WIDTH; c++) {
+				if (r % 3 != 0 || c != r % Grid.WIDTH) {
+					g.set(r, c, Color.RED);
+				}
+			}
+		}
+		g.set(11, 2, Color.BLUE);
+		g.copyRows(rows);
+		assertEquals(Zobrist.hash(rows), g.getHash());
+		assertEquals(5, g.checkRows());
+		g.copyRows(rows);
+		assertEquals(Zobrist.hash(rows), g.getHash());
+		g.clearRow(Grid.HEIGHT - 1);
+		g.moveRowDown(Grid.HEIGHT - 2);
+		g.copyRows(rows);
+		assertEquals(Zobrist.hash(rows), g.getHash());
+
+		AIPolicy ai = new AIPolicy(1);
+		Game game = BatchSimulator.play(new Game(new BagGenerator(5)), ai, 200);
+		assertEquals(200, game.getPieces());
+		assertTrue(ai.getTable().getHits() > 0);
+	}
+
+	/**
+	 * Tests that once every piece type has appeared, moving, dropping and
+	 * checking for the end of the game allocate nothing
+	 */
+	@Test
+	public void testSteadyStateAllocatesNothing() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		Game game = new Game(new BagGenerator(11));
+		AIPolicy ai = new AIPolicy();
+		BatchSimulator.play(game, ai, 50);
+
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < 100 && !game.isGameOver(); i++) {
+			if (game.getPiece() == null) {
+				game.movePiece(Direction.DOWN);
+			} else {
+				game.movePiece(Direction.LEFT);
+				game.movePiece(Direction.RIGHT);
+				ai.place(game);
+			}
+		}
+		assertEquals(0, threads.getThreadAllocatedBytes(thread) - before);
+	}
+
+	/**
+	 * Tests the column tops of the grid and the drop distance of a piece,
+	 * over the surface and under an overhang
+	 */
+	@Test
+	public void testDropDistance() {
+		Grid g = new Grid();
+		g.set(15, 4, Color.RED);
+		g.set(12, 4, Color.RED);
+		assertEquals(12, g.getColumnTop(4));
+		assertEquals(Grid.HEIGHT, g.getColumnTop(5));
+		g.set(12, 4, Grid.EMPTY);
+		assertEquals(15, g.getColumnTop(4));
+
+		// squares (0,4) (1,4) (2,4) (2,5): lands on (15, 4)
+		LShape ls = new LShape(1, 4, g);
+		assertEquals(12, ls.getDropDistance());
+		assertEquals(13, ls.getLandingRow());
+
+		// an overhang over column 5, with the piece slid under it
+		for (int c = 5; c < Grid.WIDTH; c++) {
+			g.set(3, c, Color.BLUE);
+		}
+		for (int c = 0; c < Grid.WIDTH; c++) {
+			g.set(Grid.HEIGHT - 1, c, Color.BLUE);
+		}
+		LShape under = new LShape(5, 4, g);
+		// column 4 tops at 15 and the row 19 clear leaves it at 16
+		assertEquals(1, g.checkRows());
+		assertEquals(16, g.getColumnTop(4));
+		assertEquals(4, g.getColumnTop(5));
+		assertEquals(9, under.getDropDistance());
+		under.drop();
+		assertFalse(under.canMove(Direction.DOWN));
+		assertEquals(14, under.getRow());
+	}
+
+	/**
+	 * Tests the region of squares a game marks as changed
+	 */
+	@Test
+	public void testDirtyRegion() {
+		Game game = new Game(new BagGenerator(2));
+		assertTrue(game.isDirty());
+		game.clearDirty();
+		assertFalse(game.isDirty());
+
+		// a move to the left covers the piece before and after the move
+		int left = game.getPiece().getLeftColumn();
+		game.movePiece(Direction.LEFT);
+		assertTrue(game.isDirty());
+		assertEquals(left - 1, game.getDirtyLeft());
+		assertTrue(game.getDirtyBottom() <= Game.SPAWN_ROW + 2);
+		game.clearDirty();
+
+		// a drop covers the rows from the piece down to where it landed
+		game.movePiece(Direction.DROP);
+		assertEquals(Grid.HEIGHT - 1, game.getDirtyBottom());
+		assertTrue(game.getDirtyTop() <= Game.SPAWN_ROW + 1);
+	}
+
+	@Test
+	public void testGameRenderer() {
+		Game game = new Game(new BagGenerator(3));
+		for (int i = 0; i < 6; i++) {
+			game.place(i % AbstractPiece.ORIENTATIONS, 2 * i % Grid.WIDTH);
+			game.movePiece(Direction.DOWN);
+		}
+		game.getGrid().set(0, 0, new Color(1, 2, 3)); // a color not seen yet
+
+		// the cached images draw the same pixels as the squares themselves
+		BufferedImage expected = new BufferedImage(400, 550,
+				BufferedImage.TYPE_INT_RGB);
+		BufferedImage actual = new BufferedImage(400, 550,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = expected.createGraphics();
+		game.draw(g);
+		g.dispose();
+		g = actual.createGraphics();
+		new GameRenderer().draw(g, game);
+		g.dispose();
+		for (int y = Grid.TOP; y < Grid.TOP + Grid.HEIGHT * Square.HEIGHT
+				+ Grid.BORDER; y++) {
+			for (int x = Grid.LEFT - Grid.BORDER; x < Grid.LEFT + Grid.WIDTH
+					* Square.WIDTH + Grid.BORDER; x++) {
+				assertEquals("pixel " + x + ", " + y, expected.getRGB(x, y),
+						actual.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void testGravity() throws InterruptedException {
+		// at the default gravity the piece falls a row every 48 ticks
+		Game game = new Game(new BagGenerator(4));
+		int row = game.getPiece().getRow();
+		for (int i = 1; i < 48; i++) {
+			game.tick();
+		}
+		assertEquals(row, game.getPiece().getRow());
+		game.tick();
+		assertEquals(row + 1, game.getPiece().getRow());
+		assertTrue(game.getFall() < game.getGravity());
+
+		// at 20G it lands, and so locks, within one tick
+		game.setGravity(Game.MAX_GRAVITY);
+		game.tick();
+		assertNull(game.getPiece());
+		assertEquals(1, game.getPieces());
+		game.tick();
+		assertNotNull(game.getPiece());
+		assertEquals(50, game.getTicks());
+		// falling, locking and spawning are not moves of the player
+		assertEquals(0, game.getMoves());
+		game.movePiece(Direction.LEFT);
+		game.rotatePiece(Direction.ROTATE);
+		game.tick();
+		assertEquals(2, game.getMoves());
+
+		try {
+			game.setGravity(0);
+			fail("gravity 0 accepted");
+		} catch (IllegalArgumentException e) {
+		}
+
+		// a loop plays the ticks at their rate until the game is over
+		game = new Game(new BagGenerator(4));
+		game.setGravity(Game.MAX_GRAVITY);
+		GameLoop loop = new GameLoop(game, null, 1000, 100);
+		loop.start();
+		for (int i = 0; i < 100 && loop.isRunning(); i++) {
+			Thread.sleep(50);
+		}
+		synchronized (game) {
+			assertTrue(game.isGameOver());
+		}
+		assertFalse(loop.isRunning());
+
+		// a tick of a game over changes nothing
+		long ticks = game.getTicks();
+		long hash = game.getGrid().getHash();
+		int pieces = game.getPieces();
+		game.tick();
+		assertEquals(ticks, game.getTicks());
+		assertEquals(hash, game.getGrid().getHash());
+		assertEquals(pieces, game.getPieces());
+	}
+
+	@Test
+	public void testSnapshotBuffer() {
+		Game game = new Game(new BagGenerator(5));
+		SnapshotBuffer buffer = new SnapshotBuffer();
+		assertEquals(0, buffer.take().getSquareCount());
+		buffer.publish(game);
+		GameSnapshot snapshot = buffer.take();
+		assertEquals(game.getPiece().getSquareCount(), snapshot
+				.getSquareCount());
+		assertEquals(game.getPiece().getColor(), snapshot.getPieceColor());
+
+		// the snapshot does not change with the game, until the next publish
+		game.place(0, 0);
+		game.movePiece(Direction.DOWN);
+		assertSame(snapshot, buffer.take());
+		assertEquals(0, snapshot.getPieces());
+		buffer.publish(game);
+		buffer.publish(game); // only the latest is taken
+		snapshot = buffer.take();
+		assertEquals(1, snapshot.getPieces());
+		for (int r = 0; r < Grid.HEIGHT; r++) {
+			assertEquals(game.getGrid().getRow(r), snapshot.getRow(r));
+			for (int c = 0; c < Grid.WIDTH; c++) {
+				assertEquals(game.getGrid().getColor(r, c), snapshot.getColor(
+						r, c));
+			}
+		}
+		assertSame(snapshot, buffer.take());
+	}
+
+	@Test
+	public void testAutoRepeat() {
+		Game game = new Game(new BagGenerator(6));
+		InputQueue queue = new InputQueue(4);
+		AutoRepeat repeat = new AutoRepeat(queue, 3, 2);
+		int left = game.getPiece().getLeftColumn();
+
+		// a key waits for the tick after it was pressed
+		assertTrue(queue.offer(100, Direction.LEFT, true));
+		assertTrue(queue.offer(101, Direction.LEFT, true)); // an OS repeat
+		repeat.update(game, 99);
+		assertEquals(left, game.getPiece().getLeftColumn());
+		repeat.update(game, 200);
+		assertEquals(left - 1, game.getPiece().getLeftColumn());
+
+		// held, it moves again after DAS ticks, then every ARR ticks
+		repeat.update(game, 300);
+		assertEquals(left - 1, game.getPiece().getLeftColumn());
+		repeat.update(game, 400);
+		assertEquals(left - 2, game.getPiece().getLeftColumn());
+		repeat.update(game, 500);
+		assertEquals(left - 2, game.getPiece().getLeftColumn());
+		repeat.update(game, 600);
+		assertEquals(left - 3, game.getPiece().getLeftColumn());
+		queue.offer(650, Direction.LEFT, false);
+		repeat.update(game, 700);
+		repeat.update(game, 800);
+		assertEquals(left - 3, game.getPiece().getLeftColumn());
+
+		// at an ARR of 0, it moves to the wall at once
+		repeat = new AutoRepeat(queue, 0, 0);
+		queue.offer(900, Direction.RIGHT, true);
+		repeat.update(game, 1000);
+		AbstractPiece piece = game.getPiece();
+		int right = 0;
+		for (int i = 0; i < piece.getSquareCount(); i++) {
+			right = Math.max(right, piece.getSquareCol(i));
+		}
+		assertEquals(Grid.WIDTH - 1, right);
+
+		// a full queue loses the events
+		for (int i = 0; i < 4; i++) {
+			assertTrue(queue.offer(2000, Direction.ROTATE, i % 2 == 0));
+		}
+		assertFalse(queue.offer(2000, Direction.ROTATE, true));
+		assertEquals(1, queue.getDropped());
+	}
+
+	@Test
+	public void testReplay() {
+		// a player shifting and turning pieces at random
+		Game game = new Game(new BagGenerator(7));
+		ReplayRecorder recorder = new ReplayRecorder(game);
+		Direction[] keys = { Direction.LEFT, Direction.RIGHT,
+				Direction.ROTATE, Direction.DROP };
+		long x = 7;
+		while (!game.isGameOver() && game.getTicks() < 100000) {
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+			if ((x & 3) == 0) {
+				game.input(keys[(int) (x >>> 8 & 3)]);
+			}
+			game.tick();
+		}
+		byte[] data = recorder.toByteArray();
+		assertTrue(game.getPieces() > 10);
+		// about a byte and a half per key
+		assertTrue(data.length < 40 + 2 * recorder.getKeyCount());
+
+		Replay replay = new Replay(data);
+		assertEquals(Replay.BAG, replay.getGenerator());
+		assertEquals(7, replay.getSeed());
+		assertEquals(recorder.getKeyCount(), replay.getKeyCount());
+		assertTrue(replay.verify());
+		Game played = replay.play();
+		assertEquals(game.getPieces(), played.getPieces());
+		assertEquals(game.getGrid().toString(), played.getGrid().toString());
+
+		// a changed key gives another game
+		data[data.length - 2] ^= 1;
+		assertFalse(new Replay(data).verify());
+	}
+
+	@Test
+	public void testReplayArchive() throws IOException {
+		Path dir = Files.createTempDirectory("archive");
+		Path path = dir.resolve("games.tra");
+		byte[][] replays = new byte[5][];
+		for (int i = 0; i < replays.length; i++) {
+			Game game = new Game(new UniformGenerator(i));
+			ReplayRecorder recorder = new ReplayRecorder(game);
+			for (int t = 0; t < 200 * i && !game.isGameOver(); t++) {
+				if (t % 7 == 0) {
+					game.input(t % 21 == 0 ? Direction.LEFT : Direction.ROTATE);
+				}
+				game.tick();
+			}
+			replays[i] = recorder.toByteArray();
+		}
+
+		// appended by two writers, the second after a write cut short
+		try (ReplayArchiveWriter writer = new ReplayArchiveWriter(path)) {
+			assertEquals(0, writer.append(replays[0]));
+			assertEquals(1, writer.append(replays[1]));
+		}
+		try (FileChannel data = FileChannel.open(path,
+				StandardOpenOption.APPEND)) {
+			data.write(ByteBuffer.wrap(replays[4]));
+		}
+		try (ReplayArchiveWriter writer = new ReplayArchiveWriter(path)) {
+			assertEquals(2, writer.size());
+			for (int i = 2; i < replays.length; i++) {
+				assertEquals(i, writer.append(replays[i]));
+			}
+		}
+
+		try (ReplayArchive archive = new ReplayArchive(path)) {
+			assertEquals(replays.length, archive.size());
+			for (int i = 0; i < replays.length; i++) {
+				assertEquals(ByteBuffer.wrap(replays[i]), archive.get(i));
+				assertTrue(new Replay(archive.get(i)).verify());
+			}
+			// the shards hold every replay once
+			int[] seen = new int[replays.length];
+			for (int shard = 0; shard < 3; shard++) {
+				archive.scan(archive.getShardStart(shard, 3), archive
+						.getShardStart(shard + 1, 3),
+						(replay, id) -> seen[(int) id]++);
+			}
+			for (int i = 0; i < replays.length; i++) {
+				assertEquals(1, seen[i]);
+			}
+			try {
+				archive.get(replays.length);
+				fail("id past the end accepted");
+			} catch (IndexOutOfBoundsException e) {
+			}
+		}
+		Files.delete(path);
+		Files.delete(ReplayArchive.indexOf(path));
+		Files.delete(dir);
+	}
+
+	@Test
+	public void testSaveRestore() {
+		Game game = new Game(new BagGenerator(8));
+		for (int i = 0; i < 10; i++) {
+			game.place(i % AbstractPiece.ORIENTATIONS, 3 * i % Grid.WIDTH);
+			game.movePiece(Direction.DOWN);
+		}
+		game.rotatePiece(Direction.ROTATE);
+		GameState state = new GameState();
+		game.save(state);
+		String grid = game.getGrid().toString();
+		int row = game.getPiece().getRow(), col = game.getPiece().getCol();
+		int orientation = game.getPiece().getOrientation();
+		int next = game.getGenerator().peek(0);
+
+		// play on, then undo
+		for (int i = 0; i < 5; i++) {
+			game.place(0, i);
+			game.movePiece(Direction.DOWN);
+		}
+		int pieces = game.getPieces();
+		long hash = game.getGrid().getHash();
+		game.restore(state);
+		assertEquals(grid, game.getGrid().toString());
+		assertEquals(row, game.getPiece().getRow());
+		assertEquals(col, game.getPiece().getCol());
+		assertEquals(orientation, game.getPiece().getOrientation());
+		assertEquals(next, game.getGenerator().peek(0));
+		assertEquals(10, game.getPieces());
+
+		// the same moves give the same game again, on this game or another
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < 5; i++) {
+				game.place(0, i);
+				game.movePiece(Direction.DOWN);
+			}
+			assertEquals(pieces, game.getPieces());
+			assertEquals(hash, game.getGrid().getHash());
+			game = new Game(new BagGenerator(0));
+			game.restore(state);
+		}
+		for (int c = 0; c < Grid.WIDTH; c++) {
+			int top = Grid.HEIGHT;
+			for (int r = Grid.HEIGHT - 1; r >= 0; r--) {
+				if (game.getGrid().isSet(r, c)) {
+					top = r;
+				}
+			}
+			assertEquals(top, game.getGrid().getColumnTop(c));
+		}
+
+		// a state of a grid of other colors keeps the colors of the palette
+		// where they are, so a snapshot still shows the squares as they are
+		Game other = new Game(new BagGenerator(0));
+		other.getGrid().set(Grid.HEIGHT - 1, 0, Color.PINK);
+		GameSnapshot snapshot = new GameSnapshot(other);
+		game.getGrid().set(Grid.HEIGHT - 1, 0, Color.ORANGE);
+		game.save(state);
+		other.restore(state);
+		snapshot.copy(other);
+		assertEquals(Color.ORANGE, other.getGrid().getColor(Grid.HEIGHT - 1,
+				0));
+		for (int r = 0; r < Grid.HEIGHT; r++) {
+			for (int c = 0; c < Grid.WIDTH; c++) {
+				assertEquals(game.getGrid().getColor(r, c), other.getGrid()
+						.getColor(r, c));
+				assertEquals(game.getGrid().getColor(r, c), snapshot.getColor(
+						r, c));
+			}
+		}
+		assertEquals(game.getGrid().getHash(), other.getGrid().getHash());
+
+		try {
+			new Game(new UniformGenerator(0)).restore(state);
+			fail("state of a bag generator restored on a uniform one");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testGameMetrics() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i * 10);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(505, histogram.getMeanNanos());
+		assertEquals(1000, histogram.getMaxNanos());
+		// the median, 500 ns, is in the bucket from 256 to 511 ns
+		assertEquals(511, histogram.getPercentileNanos(0.5));
+		assertEquals(1000, histogram.getPercentileNanos(0.99));
+
+		// a game records its moves, and JMX shows them
+		GameMetrics metrics = new GameMetrics();
+		Game game = new Game(new BagGenerator(9));
+		game.setMetrics(metrics);
+		AIPolicy policy = new AIPolicy();
+		for (int i = 0; i < 50 && !game.isGameOver(); i++) {
+			game.rotatePiece(Direction.ROTATE);
+			game.tick();
+			if (game.getPiece() == null) {
+				game.movePiece(Direction.DOWN);
+			}
+			policy.place(game);
+		}
+		assertEquals(game.getPieces(), metrics.getPieces());
+		assertEquals(game.getLines(), metrics.getLines());
+		assertTrue(metrics.getLines() > 0);
+		assertEquals(50, metrics.getTickHistogram().getCount());
+		assertTrue(metrics.getDropHistogram().getCount() >= 50);
+		assertTrue(metrics.getLineClearHistogram().getCount() > 0);
+		// the rates are of the last window sampled, however often read
+		metrics.sample(System.nanoTime() + GameMetrics.WINDOW_NANOS);
+		double rate = metrics.getPiecesPerSecond();
+		assertTrue(rate > 0);
+		assertEquals(rate, metrics.getPiecesPerSecond(), 0);
+		assertTrue(metrics.getLinesPerSecond() > 0);
+
+		metrics.register();
+		try {
+			CompositeData tick = (CompositeData) ManagementFactory
+					.getPlatformMBeanServer().getAttribute(
+							new ObjectName(GameMetrics.OBJECT_NAME), "Tick");
+			assertEquals(50L, tick.get("count"));
+		} finally {
+			metrics.unregister();
+		}
+	}
+
+	@Test
+	public void testFlightRecorderEvents() throws IOException {
+		Path file = Files.createTempFile("tetris", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("tetris.Move");
+			recording.enable("tetris.Lock");
+			recording.enable("tetris.LineClear");
+			recording.start();
+			Game game = new Game(new BagGenerator(9));
+			AIPolicy policy = new AIPolicy();
+			for (int i = 0; i < 30 && !game.isGameOver(); i++) {
+				game.movePiece(Direction.DOWN);
+				policy.place(game);
+			}
+			assertTrue(game.getLines() > 0);
+			recording.stop();
+			recording.dump(file);
+		}
+
+		int moves = 0, locks = 0, rows = 0;
+		for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+			String name = event.getEventType().getName();
+			if (name.equals("tetris.Move")) {
+				moves++;
+			} else if (name.equals("tetris.Lock")) {
+				locks++;
+				assertTrue(event.getInt("pieceType") >= 0);
+			} else if (name.equals("tetris.LineClear")) {
+				rows += event.getInt("rowsCleared");
+				assertFalse(event.getDuration().isNegative());
+			} else {
+				assertFalse(name, name.startsWith("tetris."));
+			}
+		}
+		Files.delete(file);
+		assertTrue(moves >= 60);
+		assertEquals(30, locks);
+		assertTrue(rows > 0);
+	}
+
+	@Test
+	public void testAddGarbage() {
+		Grid g = new Grid();
+		int[] rows = new int[Grid.HEIGHT];
+		g.set(0, 4, Color.RED);
+		g.set(5, 2, Color.RED);
+		g.set(Grid.HEIGHT - 1, 7, Color.BLUE);
+		assertFalse(g.addGarbage(0, 3, Color.GRAY));
+		assertTrue(g.addGarbage(2, 3, Color.GRAY));
+		g.copyRows(rows);
+		assertEquals(Zobrist.hash(rows), g.getHash());
+		assertEquals(0, rows[0]);
+		assertEquals(1 << 2, rows[3]);
+		assertEquals(1 << 7, rows[Grid.HEIGHT - 3]);
+		for (int r = Grid.HEIGHT - 2; r < Grid.HEIGHT; r++) {
+			assertEquals(Grid.FULL_ROW & ~(1 << 3), rows[r]);
+			assertEquals(Color.GRAY, g.getColor(r, 0));
+			assertEquals(Grid.EMPTY, g.getColor(r, 3));
+		}
+		assertEquals(3, g.getColumnTop(2));
+		assertEquals(Grid.HEIGHT - 3, g.getColumnTop(7));
+		assertEquals(Grid.HEIGHT, g.getColumnTop(3));
+		assertEquals(Grid.HEIGHT - 2, g.getColumnTop(0));
+		// garbage rows are never full
+		assertEquals(0, g.checkRows());
+		try {
+			g.addGarbage(1, Grid.WIDTH, Color.GRAY);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		// garbage over the piece ends the game
+		Game game = new Game(new BagGenerator(1));
+		game.addGarbage(Grid.HEIGHT / 2, 0);
+		assertFalse(game.isGameOver());
+		assertEquals(Grid.HEIGHT / 2, game.getGrid().getColumnTop(1));
+		game.addGarbage(Grid.HEIGHT / 2 - 1, 0);
+		assertTrue(game.isGameOver());
+	}
+
+	@Test
+	public void testVersusMatch() {
+		VersusMatch match = new VersusMatch(7);
+		AIPolicy policy = new AIPolicy();
+		// player 0 plays until it sends garbage, player 1 waits
+		while (match.getGarbage(1) == 0) {
+			assertFalse(match.isOver());
+			policy.place(match.getGame(0));
+			match.tick();
+		}
+		Game game = match.getGame(1);
+		assertEquals(0, game.getGrid().getRow(Grid.HEIGHT - 1));
+		// the garbage comes in once the piece of player 1 locks
+		match.input(1, Direction.DROP);
+		assertEquals(0, match.getGarbage(1));
+		int hole = Grid.FULL_ROW & ~game.getGrid().getRow(Grid.HEIGHT - 1);
+		assertEquals(1, Integer.bitCount(hole));
+		int[] rows = new int[Grid.HEIGHT];
+		game.getGrid().copyRows(rows);
+		assertEquals(Zobrist.hash(rows), game.getGrid().getHash());
+
+		// player 1 drops until it loses
+		while (!match.isOver()) {
+			match.input(1, Direction.DROP);
+			match.tick();
+		}
+		assertTrue(game.isGameOver());
+		assertEquals(0, match.getWinner());
+	}
+
+	@Test
+	public void testVersusServer() throws Exception {
+		VersusServer server = new VersusServer(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), 0), 1);
+		server.start();
+		VersusLoadTest test = new VersusLoadTest(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), server.getPort()), 4, 20);
+		try {
+			test.run(500000000L);
+			assertTrue(server.getMatchCount() + server.getFinishedCount() >= 4);
+		} finally {
+			test.close();
+			server.close();
+		}
+		assertTrue(test.getKeys() > 0);
+		// START and a STATE of each game, at least, per player
+		assertTrue(test.getFrames() >= 8 * 3);
+		assertTrue(server.getTickHistogram().getCount() > 0);
+		assertEquals(0, server.getDroppedTicks());
+	}
+
+	@Test
+	public void testSpectatorStream() {
+		Game game = new Game(new BagGenerator(3));
+		SpectatorEncoder encoder = new SpectatorEncoder(game);
+		SpectatorDecoder spectator = new SpectatorDecoder();
+		SpectatorDecoder late = new SpectatorDecoder();
+		ByteBuffer buffer = ByteBuffer.allocate(
+				SpectatorEncoder.MAX_FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		AIPolicy policy = new AIPolicy();
+		long bytes = 0;
+		int frames = 0;
+		for (int i = 0; i < 3000 && !game.isGameOver(); i++) {
+			if (i % 10 == 0) {
+				policy.place(game);
+			} else if (i % 10 == 5) {
+				game.input(i % 20 == 5 ? Direction.LEFT : Direction.ROTATE);
+			}
+			if (i == 400) {
+				game.addGarbage(2, 4);
+			}
+			game.tick();
+			buffer.clear();
+			bytes += encoder.encode(buffer);
+			frames++;
+			buffer.flip();
+			assertTrue(spectator.decode(buffer.duplicate().order(
+					ByteOrder.LITTLE_ENDIAN)));
+			assertSpectated(game, spectator);
+			// a spectator joining late, then missing a frame, waits for the
+			// next keyframe
+			if (i >= 100 && i != 500) {
+				boolean keyframe = buffer.get(0) == SpectatorEncoder.KEYFRAME;
+				assertEquals(keyframe || (late.isSynced() && i != 501), late
+						.decode(buffer));
+				if (late.isSynced()) {
+					assertSpectated(game, late);
+				}
+			}
+		}
+		assertTrue(late.isSynced());
+		assertTrue(game.getLines() > 10);
+		// an order of magnitude less than the 200 squares of the grid a frame
+		assertTrue(bytes * 10 < frames * Grid.HEIGHT * Grid.WIDTH);
+	}
+
+	/*
+	 * Checks that a spectator sees the game as it is
+	 */
+	private static void assertSpectated(Game game, SpectatorDecoder spectator) {
+		Grid grid = game.getGrid(), seen = spectator.getGrid();
+		for (int r = 0; r < Grid.HEIGHT; r++) {
+			assertEquals(grid.getRow(r), seen.getRow(r));
+			for (int c = 0; c < Grid.WIDTH; c++) {
+				assertEquals(grid.getColor(r, c), seen.getColor(r, c));
+			}
+		}
+		assertEquals(grid.getHash(), seen.getHash());
+		AbstractPiece piece = game.getPiece();
+		if (piece == null) {
+			assertNull(spectator.getPiece());
+		} else {
+			assertEquals(game.getPieceType(), spectator.getPieceType());
+			assertEquals(piece.getRow(), spectator.getPiece().getRow());
+			assertEquals(piece.getCol(), spectator.getPiece().getCol());
+			assertEquals(piece.getOrientation(), spectator.getPiece()
+					.getOrientation());
+		}
+		assertEquals(game.getTicks(), spectator.getTicks());
+		assertEquals(game.getLines(), spectator.getLines());
+		assertEquals(game.getPieces(), spectator.getPieces());
+		assertEquals(game.isGameOver(), spectator.isGameOver());
+	}
+
+	@Test
+	public void testSpectatorBroadcast() throws Exception {
+		Game game = new Game(new BagGenerator(5));
+		SpectatorBroadcaster broadcaster = new SpectatorBroadcaster(game);
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		SocketChannel[] viewers = new SocketChannel[3];
+		SpectatorDecoder[] decoders = new SpectatorDecoder[viewers.length];
+		ByteBuffer[] inputs = new ByteBuffer[viewers.length];
+		try {
+			broadcaster.start();
+			for (int v = 0; v < viewers.length; v++) {
+				viewers[v] = SocketChannel.open();
+				// the last viewer reads nothing until the end: its socket
+				// fills up, and it is dropped to a keyframe
+				if (v == 2) {
+					viewers[v].setOption(StandardSocketOptions.SO_RCVBUF, 2048);
+				}
+				viewers[v].connect(server.getLocalAddress());
+				viewers[v].configureBlocking(false);
+				SocketChannel accepted = server.accept();
+				if (v == 2) {
+					accepted.setOption(StandardSocketOptions.SO_SNDBUF, 2048);
+				}
+				broadcaster.subscribe(accepted);
+				decoders[v] = new SpectatorDecoder();
+				inputs[v] = ByteBuffer.allocate(1 << 20).order(
+						ByteOrder.LITTLE_ENDIAN);
+			}
+			AIPolicy policy = new AIPolicy();
+			for (int i = 0; i < 5000; i++) {
+				if (i % 10 == 0 && !game.isGameOver()) {
+					policy.place(game);
+				}
+				game.tick();
+				if (i % 50 == 0) {
+					read(viewers[0], inputs[0], decoders[0]);
+					read(viewers[1], inputs[1], decoders[1]);
+				}
+			}
+			assertEquals(viewers.length, broadcaster.getSubscriberCount());
+			// every viewer catches up with the game, still ticking: a game
+			// over sends no more frames, so no keyframe for a viewer dropped
+			assertFalse(game.isGameOver());
+			long deadline = System.nanoTime() + 10000000000L;
+			boolean caughtUp = false;
+			while (!caughtUp && System.nanoTime() < deadline) {
+				game.tick();
+				Thread.sleep(5);
+				caughtUp = true;
+				for (int v = 0; v < viewers.length; v++) {
+					read(viewers[v], inputs[v], decoders[v]);
+					caughtUp &= decoders[v].isSynced()
+							&& decoders[v].getTicks() == game.getTicks();
+				}
+			}
+			assertTrue(caughtUp);
+			for (int v = 0; v < viewers.length; v++) {
+				assertSpectated(game, decoders[v]);
+			}
+			assertTrue(broadcaster.getDropCount() > 0);
+			assertEquals(game.getTicks(), broadcaster.getFrameCount());
+		} finally {
+			broadcaster.close();
+			server.close();
+			for (int v = 0; v < viewers.length; v++) {
+				if (viewers[v] != null) {
+					viewers[v].close();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Reads the frames sent to a viewer, and decodes those read whole
+	 */
+	private static void read(SocketChannel viewer, ByteBuffer input,
+			SpectatorDecoder decoder) throws IOException {
+		while (viewer.read(input) > 0) {
+			input.flip();
+			while (input.remaining() >= 3
+					&& input.remaining() >= 3 + (input.getShort(input
+							.position() + 1) & 0xFFFF)) {
+				decoder.decode(input);
+			}
+			input.compact();
+		}
+	}
+
+	@Test
+	public void testTournament() throws IOException {
+		Tournament tournament = new Tournament(BagGenerator::new, 300,
+				new ForkJoinPool(2));
+		tournament.addPolicy("ai", seed -> new AIPolicy());
+		tournament.addPolicy("random", RandomPolicy::forGame);
+		StringWriter out = new StringWriter();
+		Leaderboard board = tournament.run(100, 20, out);
+		assertSame(board, tournament.getLeaderboard());
+
+		String[] lines = out.toString().split("\\R");
+		assertEquals(Tournament.HEADER, lines[0]);
+		assertEquals(1 + 2 * 20, lines.length);
+		long[] total = new long[2];
+		for (int i = 1; i < lines.length; i++) {
+			String[] columns = lines[i].split(",");
+			int policy = columns[0].equals("ai") ? 0 : 1;
+			long seed = Long.parseLong(columns[1]);
+			assertTrue(seed >= 100 && seed < 120);
+			total[policy] += Integer.parseInt(columns[2]);
+			// the same pieces as any game of the seed
+			if (policy == 0) {
+				Game game = BatchSimulator.play(new Game(new BagGenerator(
+						seed)), new AIPolicy(), 300);
+				assertEquals(game.getLines(), Integer.parseInt(columns[2]));
+				assertEquals(game.getPieces(), Integer.parseInt(columns[3]));
+			}
+		}
+		for (int p = 0; p < 2; p++) {
+			assertEquals(20, board.getGames(p));
+			assertEquals(total[p], board.getTotalLines(p));
+		}
+		assertEquals(0, (int) board.getRanking()[0]);
+		assertEquals(20, board.getWins(0));
+		assertEquals(0, board.getWins(1));
+		assertEquals(20, board.getLost(1));
+	}
+
 	@Test
 	public void checkRows2() {
 		int currentRow = 0;
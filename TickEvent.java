@@ -0,0 +1,21 @@
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A tick of the game: the piece falling, locking or appearing, timing Game.tick.
+ *
+ * @author MO-Productions
+ */
+@Name("tetris.Tick")
+@Label("Tick")
+@Description("A tick of the game: the piece falling, locking or appearing")
+public class TickEvent extends GameEvent {
+	private static final EventType TYPE = EventType
+			.getEventType(TickEvent.class);
+
+	static boolean isOn() {
+		return TYPE.isEnabled();
+	}
+}
@@ -0,0 +1,344 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.LongFunction;
+
+/**
+ * Plays several policies against each other on the same seeds: every policy
+ * plays one headless game per seed of a range, with the same pieces as the
+ * others on that seed.
+ *
+ * The seeds are split across a fork/join pool by BatchSimulator.Games, each
+ * task playing all the policies on its seed. The results of the games go, a
+ * seed at a time, to a single thread writing them as CSV (see HEADER)
+ * through a buffer, as they finish, and updating the Leaderboard: the
+ * players never wait on the output, and the standings can be read while the
+ * tournament goes on.
+ *
+ * @author MO-Productions
+ */
+public class Tournament {
+
+	// the first line of the results, the columns of each game
+	public static final String HEADER =
+			"policy,seed,lines,pieces,moves,over,micros";
+
+	// bytes of the buffer of the output
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private List<String> names; // of the policies
+
+	private List<LongFunction<? extends PlacementPolicy>> policies; // by seed
+
+	private LongFunction<? extends PieceGenerator> generators; // by seed
+
+	private int maxPieces; // pieces after which a game is stopped
+
+	private ForkJoinPool pool; // plays the games
+
+	private volatile Leaderboard leaderboard; // of the last run
+
+	/*
+	 * The results of a seed, from the players to the writer
+	 */
+	private static class Seed {
+
+		long seed;
+
+		int[] lines, pieces, moves; // of each policy
+
+		boolean[] over;
+
+		long[] nanos;
+
+		Seed(long seed, int policies) {
+			this.seed = seed;
+			lines = new int[policies];
+			pieces = new int[policies];
+			moves = new int[policies];
+			over = new boolean[policies];
+			nanos = new long[policies];
+		}
+	}
+
+	// tells the writer the games are over
+	private static final Seed END = new Seed(0, 0);
+
+	/**
+	 * Creates a tournament dealing pieces from 7-piece bags, stopping games
+	 * at BatchSimulator.DEFAULT_MAX_PIECES, using every core
+	 */
+	public Tournament() {
+		this(BagGenerator::new, BatchSimulator.DEFAULT_MAX_PIECES, ForkJoinPool
+				.commonPool());
+	}
+
+	/**
+	 * Creates a tournament
+	 *
+	 * @param generators
+	 *            creates the piece generator of a game from its seed
+	 * @param maxPieces
+	 *            the number of pieces after which a game is stopped
+	 * @param pool
+	 *            the pool playing the games
+	 * @throws IllegalArgumentException
+	 *             if maxPieces <= 0
+	 */
+	public Tournament(LongFunction<? extends PieceGenerator> generators,
+			int maxPieces, ForkJoinPool pool) {
+		if (maxPieces <= 0)
+			throw new IllegalArgumentException("Invalid maximum pieces = "
+					+ maxPieces);
+		this.generators = generators;
+		this.maxPieces = maxPieces;
+		this.pool = pool;
+		names = new ArrayList<String>();
+		policies = new ArrayList<LongFunction<? extends PlacementPolicy>>();
+	}
+
+	/**
+	 * Adds a policy to the tournament
+	 *
+	 * @param name
+	 *            the name of the policy in the results
+	 * @param policies
+	 *            creates the policy playing a game from its seed
+	 * @throws IllegalArgumentException
+	 *             if the name is empty, holds a comma, a quote or a line
+	 *             break, or is taken
+	 */
+	public void addPolicy(String name,
+			LongFunction<? extends PlacementPolicy> policies) {
+		if (name.isEmpty() || name.matches(".*[,\"\r\n].*")
+				|| names.contains(name))
+			throw new IllegalArgumentException("Invalid name = " + name);
+		names.add(name);
+		this.policies.add(policies);
+	}
+
+	/**
+	 * Plays every policy on each seed from firstSeed to firstSeed + count -
+	 * 1, writing the result of each game as a line of CSV. The output is
+	 * flushed, not closed.
+	 *
+	 * @param firstSeed
+	 *            the seed of the first games
+	 * @param count
+	 *            the number of seeds
+	 * @param out
+	 *            where to write the results
+	 * @return the standings at the end
+	 * @throws IOException
+	 *             if the results cannot be written; the games are played
+	 *             all the same
+	 * @throws IllegalStateException
+	 *             if no policy was added
+	 */
+	public Leaderboard run(long firstSeed, int count, Writer out)
+			throws IOException {
+		if (names.isEmpty())
+			throw new IllegalStateException("No policies");
+		Leaderboard board = new Leaderboard(names.toArray(new String[0]));
+		leaderboard = board;
+		BlockingQueue<Seed> results = new LinkedBlockingQueue<Seed>();
+		IOException[] failure = new IOException[1];
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				failure[0] = write(results, board, out);
+			}
+		}, "TournamentWriter");
+		writer.start();
+		try {
+			pool.invoke(new BatchSimulator.Games(i -> results.add(play(firstSeed
+					+ i)), 0, count));
+		} finally {
+			results.add(END);
+			boolean interrupted = false;
+			while (writer.isAlive()) {
+				try {
+					writer.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		return board;
+	}
+
+	/*
+	 * Plays every policy on one seed
+	 */
+	private Seed play(long seed) {
+		Seed result = new Seed(seed, names.size());
+		for (int p = 0; p < names.size(); p++) {
+			long start = System.nanoTime();
+			Game game = BatchSimulator.play(new Game(generators.apply(seed)),
+					policies.get(p).apply(seed), maxPieces);
+			result.nanos[p] = System.nanoTime() - start;
+			result.lines[p] = game.getLines();
+			result.pieces[p] = game.getPieces();
+			result.moves[p] = game.getMoves();
+			result.over[p] = game.isGameOver();
+		}
+		return result;
+	}
+
+	/*
+	 * Writes the results as they come, until END, and records them in the
+	 * standings. Returns the error writing, if any: the results after it are
+	 * still recorded.
+	 */
+	private IOException write(BlockingQueue<Seed> results, Leaderboard board,
+			Writer out) {
+		BufferedWriter buffered = new BufferedWriter(out, BUFFER_SIZE);
+		IOException failure = null;
+		StringBuilder line = new StringBuilder();
+		try {
+			buffered.write(HEADER);
+			buffered.newLine();
+		} catch (IOException e) {
+			failure = e;
+		}
+		while (true) {
+			Seed seed;
+			try {
+				seed = results.take();
+			} catch (InterruptedException e) {
+				continue; // only the END of the results stops the writer
+			}
+			if (seed == END) {
+				break;
+			}
+			int winner = -1, best = -1;
+			for (int p = 0; p < names.size(); p++) {
+				board.record(p, seed.lines[p], seed.pieces[p], seed.over[p]);
+				if (seed.lines[p] > best) {
+					winner = p;
+					best = seed.lines[p];
+				} else if (seed.lines[p] == best) {
+					winner = -1; // a draw
+				}
+				if (failure == null) {
+					line.setLength(0);
+					line.append(names.get(p)).append(',').append(seed.seed)
+							.append(',').append(seed.lines[p]).append(',')
+							.append(seed.pieces[p]).append(',').append(
+									seed.moves[p]).append(',').append(
+									seed.over[p]).append(',').append(
+									seed.nanos[p] / 1000);
+					try {
+						buffered.append(line);
+						buffered.newLine();
+					} catch (IOException e) {
+						failure = e;
+					}
+				}
+			}
+			if (winner >= 0) {
+				board.recordWin(winner);
+			}
+		}
+		try {
+			buffered.flush();
+		} catch (IOException e) {
+			if (failure == null) {
+				failure = e;
+			}
+		}
+		return failure;
+	}
+
+	/**
+	 * Returns the standings of the tournament being played, or of the last
+	 * one, or null if none was
+	 */
+	public Leaderboard getLeaderboard() {
+		return leaderboard;
+	}
+
+	/**
+	 * Returns the policies of the given name, by the seed of their game:
+	 * "random" (see RandomPolicy.forGame), "ai", or "ai" followed by the
+	 * number of preview pieces to look at, e.g. "ai1"
+	 *
+	 * @param name
+	 *            the name of the policy
+	 * @throws IllegalArgumentException
+	 *             if the name is none of these
+	 */
+	public static LongFunction<PlacementPolicy> policy(String name) {
+		if (name.equals("random")) {
+			return RandomPolicy::forGame;
+		}
+		if (name.matches("ai[0-9]?")) {
+			int lookahead = name.length() > 2 ? name.charAt(2) - '0' : 0;
+			if (lookahead < Zobrist.MAX_PIECES) {
+				return seed -> new AIPolicy(lookahead);
+			}
+		}
+		throw new IllegalArgumentException("Unknown policy = " + name);
+	}
+
+	/**
+	 * Plays a tournament, writing the results to a file and printing the
+	 * standings every ten seconds, then at the end
+	 *
+	 * @param args
+	 *            the first seed (default 0), the number of seeds (default
+	 *            1000), the pieces after which a game is stopped (default
+	 *            BatchSimulator.DEFAULT_MAX_PIECES), the file of the results
+	 *            (default tournament.csv) and the policies, separated by
+	 *            commas (default "ai,random", see policy)
+	 */
+	public static void main(String[] args) throws IOException {
+		long firstSeed = (args.length > 0) ? Long.parseLong(args[0]) : 0;
+		int count = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		int maxPieces = (args.length > 2) ? Integer.parseInt(args[2])
+				: BatchSimulator.DEFAULT_MAX_PIECES;
+		String file = (args.length > 3) ? args[3] : "tournament.csv";
+		String[] policies = ((args.length > 4) ? args[4] : "ai,random")
+				.split(",");
+
+		Tournament tournament = new Tournament(BagGenerator::new, maxPieces,
+				ForkJoinPool.commonPool());
+		for (int i = 0; i < policies.length; i++) {
+			tournament.addPolicy(policies[i], policy(policies[i]));
+		}
+		Thread progress = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						Thread.sleep(10000);
+						System.out.println(tournament.getLeaderboard());
+					}
+				} catch (InterruptedException e) {
+					// the tournament is over
+				}
+			}
+		}, "TournamentProgress");
+		progress.setDaemon(true);
+		progress.start();
+		long start = System.nanoTime();
+		Leaderboard board;
+		try (Writer out = new FileWriter(file)) {
+			board = tournament.run(firstSeed, count, out);
+		}
+		progress.interrupt();
+		System.out.printf("%d seeds x %d policies in %.1f s%n", count,
+				policies.length, (System.nanoTime() - start) / 1e9);
+		System.out.print(board);
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * A fixed size cache of search results keyed by 64 bit hashes, e.g. the
+ * Zobrist hash of a grid mixed with the pieces still to place.
+ * 
+ * The table is made of buckets of two entries. The first entry of a bucket
+ * keeps the result of the deepest search seen for the bucket; the second one
+ * always takes the latest result that did not replace the first. A result is
+ * thus only lost to another one that cost at least as much to compute, or to
+ * a newer one.
+ * 
+ * Entries are kept in primitive arrays: storing and probing allocate nothing.
+ * 
+ * @author MO-Productions
+ */
+public class TranspositionTable {
+	// default number of entries
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private long[] keys; // the hash of each entry
+
+	private double[] values; // the cached result of each entry
+
+	private byte[] depths; // depth of each entry plus one, 0 if empty
+
+	private int mask; // number of buckets - 1
+
+	private long hits, misses; // probes that found or did not find a result
+
+	/**
+	 * Creates a table
+	 * 
+	 * @param capacity
+	 *            the number of entries, rounded up to a power of two
+	 * @throws IllegalArgumentException
+	 *             if capacity < 2 || capacity > 2^30
+	 */
+	public TranspositionTable(int capacity) {
+		if (capacity < 2 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Invalid capacity = " + capacity);
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		keys = new long[size];
+		values = new double[size];
+		depths = new byte[size];
+		mask = size / 2 - 1;
+	}
+
+	/**
+	 * Returns the cached result for the given hash, or NaN if there is none
+	 * 
+	 * @param hash
+	 *            the hash of the position
+	 */
+	public double get(long hash) {
+		int i = bucket(hash);
+		if (depths[i] != 0 && keys[i] == hash) {
+			hits++;
+			return values[i];
+		}
+		if (depths[i + 1] != 0 && keys[i + 1] == hash) {
+			hits++;
+			return values[i + 1];
+		}
+		misses++;
+		return Double.NaN;
+	}
+
+	/**
+	 * Caches a result
+	 * 
+	 * @param hash
+	 *            the hash of the position
+	 * @param depth
+	 *            how deep the search for the result went, from 0 to 126: deeper
+	 *            results are kept longer
+	 * @param value
+	 *            the result
+	 */
+	public void put(long hash, int depth, double value) {
+		int i = bucket(hash);
+		// the first entry is replaced by a result at least as deep
+		if (depths[i] == 0 || keys[i] == hash || depth + 1 >= depths[i]) {
+			store(i, hash, depth, value);
+		} else {
+			store(i + 1, hash, depth, value);
+		}
+	}
+
+	/**
+	 * Empties the table
+	 */
+	public void clear() {
+		for (int i = 0; i < depths.length; i++) {
+			depths[i] = 0;
+		}
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Returns the number of entries of this table
+	 */
+	public int getCapacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Returns the number of probes that found a result
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of probes that did not find a result
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/*
+	 * Returns the index of the first entry of the bucket of a hash
+	 */
+	private int bucket(long hash) {
+		// the high bits are as random as the low ones, fold them in
+		return (int) ((hash ^ (hash >>> 32)) & mask) << 1;
+	}
+
+	private void store(int i, long hash, int depth, double value) {
+		keys[i] = hash;
+		values[i] = value;
+		depths[i] = (byte) (depth + 1);
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * A PieceGenerator where every piece is equally likely, whatever came before
+ * it.
+ * 
+ * @author MO-Productions
+ */
+public class UniformGenerator extends AbstractPieceGenerator {
+	/**
+	 * Creates a generator showing PREVIEW_SIZE upcoming pieces
+	 * 
+	 * @param seed
+	 *            the seed of the random sequence
+	 */
+	public UniformGenerator(long seed) {
+		this(seed, PREVIEW_SIZE);
+	}
+
+	/**
+	 * Creates a generator
+	 * 
+	 * @param seed
+	 *            the seed of the random sequence
+	 * @param previewSize
+	 *            the number of upcoming pieces to show
+	 */
+	public UniformGenerator(long seed, int previewSize) {
+		super(seed, previewSize);
+	}
+
+	protected int generate() {
+		return nextInt(TYPES);
+	}
+}
@@ -0,0 +1,276 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Loads a VersusServer over the loopback: opens two connections per match,
+ * each sending random keys at a given rate and reading every frame sent
+ * back. A player whose match is over connects again, so the number of
+ * matches stays the same. All the players are played by one thread, through
+ * a Selector.
+ *
+ * Run alone, it starts a server in the same process and prints how long the
+ * server took to play its ticks, and how late it started them.
+ *
+ * @author MO-Productions
+ */
+public class VersusLoadTest implements Closeable {
+
+	private InetSocketAddress address; // of the server
+
+	private int players; // number of connections
+
+	private long keyNanos; // time between two keys of a player
+
+	private SocketChannel[] channels; // the connection of each player
+
+	private ByteBuffer[] inputs; // frames of each player, not yet read whole
+
+	private long[] nextKey; // time each player sends their next key
+
+	private Selector selector; // watches the connections
+
+	private Random random;
+
+	private long keys, frames, bytes, ends; // counts sent and received
+
+	/**
+	 * Creates a load test
+	 *
+	 * @param address
+	 *            the address of the server
+	 * @param matches
+	 *            the number of matches to keep playing
+	 * @param keysPerSecond
+	 *            the number of keys each player sends a second
+	 * @throws IllegalArgumentException
+	 *             if matches or keysPerSecond is not positive
+	 */
+	public VersusLoadTest(InetSocketAddress address, int matches,
+			int keysPerSecond) {
+		if (matches <= 0) {
+			throw new IllegalArgumentException("Invalid matches = " + matches);
+		}
+		if (keysPerSecond <= 0) {
+			throw new IllegalArgumentException("Invalid keysPerSecond = "
+					+ keysPerSecond);
+		}
+		this.address = address;
+		players = 2 * matches;
+		keyNanos = 1000000000L / keysPerSecond;
+		channels = new SocketChannel[players];
+		inputs = new ByteBuffer[players];
+		nextKey = new long[players];
+		random = new Random(matches);
+		for (int i = 0; i < players; i++) {
+			inputs[i] = ByteBuffer.allocate(VersusMatch.OUTPUT_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/**
+	 * Plays for the given time. The players stay connected until close.
+	 *
+	 * @param nanos
+	 *            how long to play
+	 * @throws IOException
+	 *             if a connection cannot be made, or the server sends an
+	 *             unknown frame
+	 */
+	public void run(long nanos) throws IOException {
+		long now = System.nanoTime();
+		if (selector == null) {
+			selector = Selector.open();
+			for (int i = 0; i < players; i++) {
+				connect(i);
+				// the keys of the players are spread over the first period
+				nextKey[i] = now + (long) (random.nextDouble() * keyNanos);
+			}
+		}
+		long end = now + nanos;
+		ByteBuffer key = ByteBuffer.allocate(1);
+		while (System.nanoTime() - end < 0) {
+			selector.select(1);
+			Iterator<SelectionKey> selected = selector.selectedKeys()
+					.iterator();
+			while (selected.hasNext()) {
+				SelectionKey ready = selected.next();
+				selected.remove();
+				int player = (Integer) ready.attachment();
+				if (ready.isValid() && read(player)) {
+					connect(player);
+				}
+			}
+			now = System.nanoTime();
+			for (int i = 0; i < players; i++) {
+				if (now - nextKey[i] >= 0) {
+					key.clear();
+					key.put(0, randomKey());
+					try {
+						channels[i].write(key);
+						keys++;
+					} catch (IOException e) {
+						// the match is over: the END frame follows
+					}
+					nextKey[i] += keyNanos;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes every connection
+	 */
+	public void close() throws IOException {
+		for (int i = 0; i < players; i++) {
+			if (channels[i] != null) {
+				channels[i].close();
+			}
+		}
+		if (selector != null) {
+			selector.close();
+		}
+	}
+
+	/*
+	 * Connects a player to the server
+	 */
+	private void connect(int player) throws IOException {
+		if (channels[player] != null) {
+			channels[player].close();
+		}
+		SocketChannel channel = SocketChannel.open(address);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		channel.configureBlocking(false);
+		channel.register(selector, SelectionKey.OP_READ, player);
+		channels[player] = channel;
+		inputs[player].clear();
+	}
+
+	/*
+	 * Reads the frames sent to a player, and returns true if the player's
+	 * match is over
+	 */
+	private boolean read(int player) throws IOException {
+		ByteBuffer input = inputs[player];
+		int read;
+		try {
+			read = channels[player].read(input);
+		} catch (IOException e) {
+			read = -1;
+		}
+		if (read < 0) {
+			return true;
+		}
+		bytes += read;
+		input.flip();
+		boolean over = false;
+		while (input.hasRemaining()) {
+			byte type = input.get(input.position());
+			int length = VersusProtocol.frameLength(type);
+			if (length < 0) {
+				throw new IOException("Invalid frame = " + type);
+			}
+			if (input.remaining() < length) {
+				break;
+			}
+			input.position(input.position() + length);
+			frames++;
+			if (type == VersusProtocol.END) {
+				ends++;
+				over = true;
+			}
+		}
+		input.compact();
+		return over;
+	}
+
+	/*
+	 * Returns a random key: moves and rotations, sometimes a drop
+	 */
+	private byte randomKey() {
+		int n = random.nextInt(8);
+		Direction direction = n < 2 ? Direction.LEFT : n < 4 ? Direction.RIGHT
+				: n < 6 ? Direction.ROTATE : n < 7 ? Direction.DOWN
+						: Direction.DROP;
+		return (byte) direction.ordinal();
+	}
+
+	/**
+	 * Returns the number of keys sent
+	 */
+	public long getKeys() {
+		return keys;
+	}
+
+	/**
+	 * Returns the number of frames received
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Returns the number of bytes received
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of END frames received, two per match over
+	 */
+	public long getEnds() {
+		return ends;
+	}
+
+	/**
+	 * Starts a server and loads it
+	 *
+	 * @param args
+	 *            the number of matches (default 1000), seconds (default 10)
+	 *            and keys per second per player (default 10)
+	 */
+	public static void main(String[] args) throws IOException {
+		int matches = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int keysPerSecond = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		VersusServer server = new VersusServer(0);
+		server.start();
+		VersusLoadTest test = new VersusLoadTest(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), server.getPort()), matches,
+				keysPerSecond);
+		Runtime runtime = Runtime.getRuntime();
+		long start = System.nanoTime();
+		test.run(seconds * 1000000000L);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		int playing = server.getMatchCount();
+		long finished = server.getFinishedCount();
+		System.gc();
+		long heap = runtime.totalMemory() - runtime.freeMemory();
+		test.close();
+		server.close();
+
+		System.out.println(playing + " matches playing, " + finished
+				+ " over");
+		System.out.printf("%.0f keys/s, %.0f frames/s, %.0f kB/s%n",
+				test.getKeys() / elapsed, test.getFrames() / elapsed,
+				test.getBytes() / elapsed / 1000);
+		System.out.println("tick "
+				+ new LatencySummary(server.getTickHistogram()));
+		System.out.println("lag " + new LatencySummary(server.getLagHistogram()));
+		System.out.println(server.getDroppedTicks() + " ticks dropped, "
+				+ heap / Math.max(1, playing)
+				+ " bytes of heap per match, players included");
+	}
+}
@@ -0,0 +1,301 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+/**
+ * A head-to-head match between two players, each with a Game of their own
+ * fed the same pieces. Rows removed by one player send garbage rows to the
+ * other (see ATTACK): the garbage waits until the player's piece locks, then
+ * comes in at the bottom of their grid, unless rows they remove first cancel
+ * it. The last player standing wins.
+ *
+ * A match is played by a single thread (see VersusServer), without locks.
+ * The frames for each player (see VersusProtocol) are gathered in a buffer of
+ * OUTPUT_SIZE bytes, and written to the player's socket once per tick: a
+ * player too slow to read them loses the match. A match thus takes a bounded
+ * amount of memory, a few kilobytes besides its two games.
+ *
+ * @author MO-Productions
+ */
+public class VersusMatch {
+
+	// bytes of frames waiting to be written to a player
+	public static final int OUTPUT_SIZE = 4096;
+
+	// ATTACK[n]: garbage rows sent for n rows removed at once
+	public static final int[] ATTACK = { 0, 0, 1, 2, 4 };
+
+	private long seed; // seed of the pieces of both games
+
+	private Game[] games;
+
+	private SocketChannel[] channels; // the sockets of the players, or null
+
+	private ByteBuffer[] outputs; // frames not yet written to each player
+
+	private int[] garbage; // garbage rows waiting for each game
+
+	private int[] holes; // column of the hole of the garbage waiting
+
+	private int[] lines; // rows removed by each game so far
+
+	private int[] moves; // moves of each game when its state was last sent
+
+	private boolean[] changed; // must the state of each game be sent?
+
+	private Random random; // chooses the holes of the garbage
+
+	private boolean over;
+
+	private int winner; // index of the winner, -1 for a draw
+
+	/**
+	 * Creates a match without sockets: the frames are thrown away
+	 *
+	 * @param seed
+	 *            the seed of the pieces and the garbage
+	 */
+	public VersusMatch(long seed) {
+		this(seed, null, null);
+	}
+
+	/**
+	 * Creates a match between the players at the given sockets, and queues
+	 * the START frame of each player
+	 *
+	 * @param seed
+	 *            the seed of the pieces and the garbage
+	 * @param first
+	 *            the socket of player 0, or null
+	 * @param second
+	 *            the socket of player 1, or null
+	 */
+	public VersusMatch(long seed, SocketChannel first, SocketChannel second) {
+		this.seed = seed;
+		games = new Game[] { new Game(new BagGenerator(seed)),
+				new Game(new BagGenerator(seed)) };
+		channels = new SocketChannel[] { first, second };
+		outputs = new ByteBuffer[2];
+		garbage = new int[2];
+		holes = new int[2];
+		lines = new int[2];
+		moves = new int[2];
+		changed = new boolean[] { true, true };
+		random = new Random(seed);
+		winner = -1;
+		for (int p = 0; p < 2; p++) {
+			outputs[p] = ByteBuffer.allocate(OUTPUT_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+			VersusProtocol.putStart(outputs[p], seed, p);
+		}
+	}
+
+	/**
+	 * Plays a key of a player
+	 *
+	 * @param player
+	 *            the index of the player, 0 or 1
+	 * @param direction
+	 *            the key
+	 */
+	public void input(int player, Direction direction) {
+		if (over) {
+			return;
+		}
+		games[player].input(direction);
+		update(player);
+		checkOver();
+	}
+
+	/**
+	 * Plays one tick of both games, then queues the frames of what changed
+	 */
+	public void tick() {
+		if (over) {
+			return;
+		}
+		for (int p = 0; p < 2; p++) {
+			games[p].tick();
+			update(p);
+		}
+		checkOver();
+		for (int p = 0; p < 2 && !over; p++) {
+			if (changed[p] || games[p].getMoves() != moves[p]) {
+				changed[p] = false;
+				moves[p] = games[p].getMoves();
+				for (int to = 0; to < 2; to++) {
+					if (room(to, VersusProtocol.STATE_SIZE)) {
+						VersusProtocol.putState(outputs[to], p, games[p],
+								garbage[p]);
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Sends garbage for the rows the player removed since last time, and
+	 * brings in the garbage waiting for it once its piece has locked
+	 */
+	private void update(int player) {
+		int opponent = 1 - player;
+		Game game = games[player];
+		int removed = game.getLines() - lines[player];
+		if (removed > 0) {
+			lines[player] = game.getLines();
+			int sent = ATTACK[Math.min(removed, ATTACK.length - 1)];
+			// the rows removed cancel the garbage waiting first
+			int cancelled = Math.min(sent, garbage[player]);
+			garbage[player] -= cancelled;
+			sent -= cancelled;
+			if (sent > 0) {
+				if (garbage[opponent] == 0) {
+					holes[opponent] = random.nextInt(Grid.WIDTH);
+				}
+				garbage[opponent] = Math.min(Grid.HEIGHT, garbage[opponent]
+						+ sent);
+				changed[opponent] = true;
+			}
+		}
+		if (game.getPiece() == null && garbage[player] > 0
+				&& !game.isGameOver()) {
+			game.addGarbage(garbage[player], holes[player]);
+			for (int to = 0; to < 2; to++) {
+				if (room(to, VersusProtocol.GARBAGE_SIZE)) {
+					VersusProtocol.putGarbage(outputs[to], player,
+							garbage[player], holes[player]);
+				}
+			}
+			garbage[player] = 0;
+			changed[player] = true;
+		}
+	}
+
+	/*
+	 * Ends the match once a game is over
+	 */
+	private void checkOver() {
+		boolean first = games[0].isGameOver(), second = games[1].isGameOver();
+		if (first && second) {
+			end(-1);
+		} else if (first || second) {
+			end(first ? 1 : 0);
+		}
+	}
+
+	/*
+	 * Returns true if the given number of bytes can be queued for a player,
+	 * keeping room for the END frame. A player whose frames do not fit loses.
+	 */
+	private boolean room(int player, int size) {
+		if (outputs[player].remaining() >= size + VersusProtocol.END_SIZE) {
+			return true;
+		}
+		forfeit(player);
+		return false;
+	}
+
+	/**
+	 * Ends the match with the given player losing, e.g. when they leave
+	 *
+	 * @param player
+	 *            the index of the player, 0 or 1
+	 */
+	public void forfeit(int player) {
+		end(1 - player);
+	}
+
+	/*
+	 * Ends the match and queues the END frames, in room kept for them
+	 */
+	private void end(int winner) {
+		if (over) {
+			return;
+		}
+		over = true;
+		this.winner = winner;
+		for (int p = 0; p < 2; p++) {
+			VersusProtocol.putEnd(outputs[p], winner);
+		}
+	}
+
+	/**
+	 * Writes to a player's socket as much of their frames as it takes
+	 * without blocking. Without a socket, the frames are thrown away.
+	 *
+	 * @param player
+	 *            the index of the player, 0 or 1
+	 * @return true if every frame was written
+	 * @throws IOException
+	 *             if the socket fails
+	 */
+	public boolean flush(int player) throws IOException {
+		ByteBuffer output = outputs[player];
+		if (output.position() == 0) {
+			return true;
+		}
+		if (channels[player] == null) {
+			output.clear();
+			return true;
+		}
+		output.flip();
+		channels[player].write(output);
+		boolean done = !output.hasRemaining();
+		output.compact();
+		return done;
+	}
+
+	/**
+	 * Returns the socket of a player, or null if the match has none
+	 *
+	 * @param player
+	 *            the index of the player, 0 or 1
+	 */
+	public SocketChannel getChannel(int player) {
+		return channels[player];
+	}
+
+	/**
+	 * Returns the game of a player
+	 *
+	 * @param player
+	 *            the index of the player, 0 or 1
+	 */
+	public Game getGame(int player) {
+		return games[player];
+	}
+
+	/**
+	 * Returns the number of garbage rows waiting for a player's piece to lock
+	 *
+	 * @param player
+	 *            the index of the player, 0 or 1
+	 */
+	public int getGarbage(int player) {
+		return garbage[player];
+	}
+
+	/**
+	 * Returns the seed of the pieces and the garbage
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns true once a player has won, or both have lost
+	 */
+	public boolean isOver() {
+		return over;
+	}
+
+	/**
+	 * Returns the index of the player who won, or -1 for a draw or a match
+	 * not over
+	 */
+	public int getWinner() {
+		return winner;
+	}
+}
@@ -0,0 +1,156 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The messages between a VersusServer and its players, in a compact binary
+ * form over TCP.
+ *
+ * A player sends its keys, one byte each: the ordinal of the Direction. The
+ * server sends frames, a type byte then a payload of a fixed length for that
+ * type (see frameLength), numbers little endian:
+ * <ul>
+ * <li>START: the seed of the pieces (8 bytes), then the index of the player
+ * in the match, 0 or 1 (1 byte)
+ * <li>STATE: the player whose game this is (1), its ticks (4), piece type or
+ * -1 if none (1), orientation (1), row and column of the piece (1 each), rows
+ * removed (2), garbage rows waiting (1), then the occupancy bitmask of each
+ * row, top row first (2 each)
+ * <li>GARBAGE: the player receiving it (1), number of rows (1), column of the
+ * hole (1)
+ * <li>END: the player who won, or -1 for a draw (1)
+ * </ul>
+ * The largest frame, STATE, takes STATE_SIZE bytes.
+ *
+ * @author MO-Productions
+ */
+public class VersusProtocol {
+
+	public static final byte START = 1;
+
+	public static final byte STATE = 2;
+
+	public static final byte GARBAGE = 3;
+
+	public static final byte END = 4;
+
+	public static final int START_SIZE = 10;
+
+	public static final int STATE_SIZE = 13 + 2 * Grid.HEIGHT;
+
+	public static final int GARBAGE_SIZE = 4;
+
+	public static final int END_SIZE = 2;
+
+	// a key is the ordinal of its direction
+	private static final Direction[] KEYS = Direction.values();
+
+	// VersusProtocol only has static methods
+	private VersusProtocol() {
+	}
+
+	/**
+	 * Returns the length of a frame of the given type, type byte included, or
+	 * -1 if the type is unknown
+	 *
+	 * @param type
+	 *            the first byte of the frame
+	 */
+	public static int frameLength(byte type) {
+		switch (type) {
+		case START:
+			return START_SIZE;
+		case STATE:
+			return STATE_SIZE;
+		case GARBAGE:
+			return GARBAGE_SIZE;
+		case END:
+			return END_SIZE;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the direction of a key sent by a player, or null if the byte is
+	 * not a key
+	 *
+	 * @param key
+	 *            the byte sent
+	 */
+	public static Direction toDirection(byte key) {
+		return key >= 0 && key < KEYS.length ? KEYS[key] : null;
+	}
+
+	/**
+	 * Writes a START frame
+	 *
+	 * @param buffer
+	 *            the little endian buffer to write to
+	 * @param seed
+	 *            the seed of the pieces of both players
+	 * @param player
+	 *            the index of the player receiving it
+	 */
+	public static void putStart(ByteBuffer buffer, long seed, int player) {
+		buffer.put(START).putLong(seed).put((byte) player);
+	}
+
+	/**
+	 * Writes the STATE frame of a game
+	 *
+	 * @param buffer
+	 *            the little endian buffer to write to
+	 * @param player
+	 *            the index of the player of the game
+	 * @param game
+	 *            the game
+	 * @param garbage
+	 *            the number of garbage rows waiting for the game
+	 */
+	public static void putState(ByteBuffer buffer, int player, Game game,
+			int garbage) {
+		buffer.put(STATE).put((byte) player).putInt((int) game.getTicks());
+		AbstractPiece piece = game.getPiece();
+		if (piece == null) {
+			buffer.put((byte) -1).put((byte) 0).put((byte) 0).put((byte) 0);
+		} else {
+			buffer.put((byte) game.getPieceType()).put(
+					(byte) piece.getOrientation()).put((byte) piece.getRow())
+					.put((byte) piece.getCol());
+		}
+		buffer.putShort((short) game.getLines()).put((byte) garbage);
+		Grid grid = game.getGrid();
+		for (int row = 0; row < Grid.HEIGHT; row++) {
+			buffer.putShort((short) grid.getRow(row));
+		}
+	}
+
+	/**
+	 * Writes a GARBAGE frame
+	 *
+	 * @param buffer
+	 *            the little endian buffer to write to
+	 * @param player
+	 *            the index of the player receiving the garbage
+	 * @param count
+	 *            the number of garbage rows
+	 * @param hole
+	 *            the column of the hole in the garbage rows
+	 */
+	public static void putGarbage(ByteBuffer buffer, int player, int count,
+			int hole) {
+		buffer.put(GARBAGE).put((byte) player).put((byte) count).put(
+				(byte) hole);
+	}
+
+	/**
+	 * Writes an END frame
+	 *
+	 * @param buffer
+	 *            the little endian buffer to write to
+	 * @param winner
+	 *            the index of the player who won, or -1 for a draw
+	 */
+	public static void putEnd(ByteBuffer buffer, int winner) {
+		buffer.put(END).put((byte) winner);
+	}
+}
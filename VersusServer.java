@@ -0,0 +1,227 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Hosts head-to-head matches (see VersusMatch) over TCP. Players connect and
+ * are paired in the order they come; they then speak the VersusProtocol.
+ *
+ * A thread accepts the players, and a few workers (see VersusWorker), one
+ * per processor by default, play the matches: each worker ticks all of its
+ * matches on a single thread, reading and writing their non-blocking sockets
+ * through a Selector. A match costs a few kilobytes and about a microsecond
+ * a tick, so one machine can host thousands of them; getTickHistogram tells
+ * how long their ticks take, and getLagHistogram how late the workers get
+ * to them (see VersusLoadTest).
+ *
+ * @author MO-Productions
+ */
+public class VersusServer implements Closeable {
+
+	private ServerSocketChannel server; // accepts the players
+
+	private VersusWorker[] workers;
+
+	private Thread[] threads; // thread of each worker, then the acceptor
+
+	private LatencyHistogram latency; // of the ticks of every match
+
+	private LatencyHistogram lag; // of the workers starting their ticks
+
+	private long matchesStarted;
+
+	/**
+	 * Creates a server listening on the loopback address, with a worker per
+	 * processor. start must be called to play.
+	 *
+	 * @param port
+	 *            the port to listen on, 0 for any free one (see getPort)
+	 * @throws IOException
+	 *             if the port cannot be listened on
+	 */
+	public VersusServer(int port) throws IOException {
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a server. start must be called to play.
+	 *
+	 * @param address
+	 *            the address to listen on
+	 * @param workerCount
+	 *            the number of threads playing the matches
+	 * @throws IOException
+	 *             if the address cannot be listened on
+	 * @throws IllegalArgumentException
+	 *             if workerCount is not positive
+	 */
+	public VersusServer(InetSocketAddress address, int workerCount)
+			throws IOException {
+		if (workerCount <= 0) {
+			throw new IllegalArgumentException("Invalid workerCount = "
+					+ workerCount);
+		}
+		latency = new LatencyHistogram();
+		lag = new LatencyHistogram();
+		workers = new VersusWorker[workerCount];
+		server = ServerSocketChannel.open();
+		try {
+			server.bind(address, 1024);
+			for (int i = 0; i < workerCount; i++) {
+				workers[i] = new VersusWorker(latency, lag);
+			}
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Starts accepting players and playing their matches
+	 */
+	public synchronized void start() {
+		if (threads != null) {
+			return;
+		}
+		threads = new Thread[workers.length + 1];
+		for (int i = 0; i < workers.length; i++) {
+			threads[i] = new Thread(workers[i], "VersusWorker-" + i);
+		}
+		threads[workers.length] = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, "VersusAcceptor");
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+
+	/*
+	 * Pairs the players as they connect, and gives their matches to the
+	 * workers in turn
+	 */
+	private void accept() {
+		SocketChannel waiting = null; // the player without an opponent yet
+		try {
+			while (true) {
+				SocketChannel player = server.accept();
+				player.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				player.configureBlocking(false);
+				if (waiting == null || !waiting.isOpen()) {
+					waiting = player;
+					continue;
+				}
+				// a different seed for every match, from the time it starts
+				long seed = System.nanoTime() ^ matchesStarted
+						* 0x9E3779B97F4A7C15L;
+				VersusMatch match = new VersusMatch(seed, waiting, player);
+				workers[(int) (matchesStarted++ % workers.length)].add(match);
+				waiting = null;
+			}
+		} catch (IOException e) {
+			// the server was closed
+		}
+		if (waiting != null) {
+			try {
+				waiting.close();
+			} catch (IOException e) {
+				// closed anyway
+			}
+		}
+	}
+
+	/**
+	 * Returns the port the server listens on
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * Returns the number of matches being played
+	 */
+	public int getMatchCount() {
+		int count = 0;
+		for (int i = 0; i < workers.length; i++) {
+			count += workers[i].getMatchCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of matches over
+	 */
+	public long getFinishedCount() {
+		long count = 0;
+		for (int i = 0; i < workers.length; i++) {
+			count += workers[i].getFinished();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of ticks given up by the workers, because they were
+	 * more than a second behind
+	 */
+	public long getDroppedTicks() {
+		long count = 0;
+		for (int i = 0; i < workers.length; i++) {
+			count += workers[i].getDroppedTicks();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the time each match took to play its ticks and write their
+	 * frames
+	 */
+	public LatencyHistogram getTickHistogram() {
+		return latency;
+	}
+
+	/**
+	 * Returns how late the workers started playing their ticks, after they
+	 * were due. A match's tick comes later still by the ticks of the matches
+	 * played before it by the same worker.
+	 */
+	public LatencyHistogram getLagHistogram() {
+		return lag;
+	}
+
+	/**
+	 * Stops accepting players, ends every match and closes their sockets
+	 */
+	public void close() throws IOException {
+		server.close();
+		for (int i = 0; i < workers.length; i++) {
+			workers[i].stop();
+		}
+	}
+
+	/**
+	 * Hosts matches until killed
+	 *
+	 * @param args
+	 *            the port to listen on (default 7400)
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7400;
+		VersusServer server = new VersusServer(port);
+		server.start();
+		System.out.println("Listening on port " + server.getPort());
+		while (true) {
+			Thread.sleep(10000);
+			System.out.println(server.getMatchCount() + " matches, tick "
+					+ new LatencySummary(server.getTickHistogram()) + ", lag "
+					+ new LatencySummary(server.getLagHistogram()));
+		}
+	}
+}
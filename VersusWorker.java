@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays the matches of a VersusServer given to it, on a thread of its own:
+ * ticks every match at GameLoop.TICKS_PER_SECOND, playing first the keys
+ * sent by the players until the tick was due, then writes the frames of the
+ * tick. The sockets are non-blocking and watched by a single Selector, so one
+ * thread serves thousands of matches.
+ *
+ * The worker sleeps between ticks rather than waking for every key: the
+ * sockets are looked at once per tick, and all the keys sent since are read
+ * at once.
+ *
+ * The ticks are timed as in GameLoop. How long each match takes to tick and
+ * write its frames, and how late the worker starts its ticks, go to the
+ * histograms of the server.
+ *
+ * @author MO-Productions
+ */
+class VersusWorker implements Runnable {
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private Selector selector; // watches the sockets of the matches
+
+	private Queue<VersusMatch> added; // matches given by other threads
+
+	private List<VersusMatch> matches; // matches played
+
+	private ByteBuffer keys; // keys read from a socket
+
+	private LatencyHistogram latency; // of the ticks of a match, shared
+
+	private LatencyHistogram lag; // from deadline to start of ticks, shared
+
+	private long tickNanos; // length of a tick
+
+	private long nextTick; // deadline of the next tick
+
+	private long droppedTicks; // ticks given up when too far behind
+
+	private volatile int matchCount; // number of matches played
+
+	private volatile long finished; // number of matches over
+
+	private volatile boolean running;
+
+	private volatile Thread thread; // the thread playing, once started
+
+	/**
+	 * Creates a worker
+	 *
+	 * @param latency
+	 *            the histogram of the time to tick a match
+	 * @param lag
+	 *            the histogram of the time from the deadline of the ticks to
+	 *            their start
+	 * @throws IOException
+	 *             if the selector cannot be opened
+	 */
+	VersusWorker(LatencyHistogram latency, LatencyHistogram lag)
+			throws IOException {
+		this.latency = latency;
+		this.lag = lag;
+		selector = Selector.open();
+		added = new ConcurrentLinkedQueue<VersusMatch>();
+		matches = new ArrayList<VersusMatch>();
+		keys = ByteBuffer.allocate(256);
+		tickNanos = NANOS_PER_SECOND / GameLoop.TICKS_PER_SECOND;
+		running = true;
+	}
+
+	/**
+	 * Gives a match to play, from any thread
+	 *
+	 * @param match
+	 *            the match, whose sockets are non-blocking
+	 */
+	void add(VersusMatch match) {
+		added.add(match);
+	}
+
+	/**
+	 * Plays the matches until stopped
+	 */
+	public void run() {
+		thread = Thread.currentThread();
+		nextTick = System.nanoTime() + tickNanos;
+		try {
+			while (running) {
+				long wait = nextTick - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(this, wait);
+					continue;
+				}
+				// the keys sent until the tick was due, then the tick
+				selector.selectNow();
+				handleKeys();
+				register();
+				catchUp(System.nanoTime());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (ClosedSelectorException e) {
+			// stopped
+		}
+		for (int i = 0; i < matches.size(); i++) {
+			close(matches.get(i));
+		}
+		matches.clear();
+		matchCount = 0;
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// closed anyway
+		}
+	}
+
+	/*
+	 * Reads the keys of the players whose sockets are readable, and writes
+	 * the frames of those whose sockets are writable again
+	 */
+	private void handleKeys() {
+		Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+		while (selected.hasNext()) {
+			SelectionKey key = selected.next();
+			selected.remove();
+			VersusMatch match = (VersusMatch) key.attachment();
+			int player = key.channel() == match.getChannel(0) ? 0 : 1;
+			try {
+				if (key.isValid() && key.isReadable()) {
+					read(match, player);
+				}
+				if (key.isValid() && key.isWritable()
+						&& match.flush(player)) {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			} catch (IOException e) {
+				match.forfeit(player);
+			}
+		}
+	}
+
+	/*
+	 * Plays the keys sent by a player
+	 */
+	private void read(VersusMatch match, int player) throws IOException {
+		keys.clear();
+		if (match.getChannel(player).read(keys) < 0) {
+			match.forfeit(player);
+			return;
+		}
+		for (int i = 0; i < keys.position(); i++) {
+			Direction direction = VersusProtocol.toDirection(keys.get(i));
+			if (direction != null) {
+				match.input(player, direction);
+			}
+		}
+	}
+
+	/*
+	 * Watches the sockets of the matches given since last time
+	 */
+	private void register() throws IOException {
+		VersusMatch match;
+		while ((match = added.poll()) != null) {
+			for (int p = 0; p < 2; p++) {
+				match.getChannel(p).register(selector, SelectionKey.OP_READ,
+						match);
+			}
+			matches.add(match);
+		}
+		matchCount = matches.size();
+	}
+
+	/*
+	 * Plays every tick due by now, unless more than a second's worth, then
+	 * writes the frames and drops the matches over
+	 */
+	private void catchUp(long now) {
+		long due = (now - nextTick) / tickNanos + 1;
+		long late = NANOS_PER_SECOND / tickNanos;
+		if (due > late) {
+			droppedTicks += due - late;
+			nextTick += (due - late) * tickNanos;
+			due = late;
+		}
+		lag.record(now - (nextTick + (due - 1) * tickNanos));
+		int kept = 0;
+		long start = now;
+		for (int i = 0; i < matches.size(); i++) {
+			VersusMatch match = matches.get(i);
+			for (long t = 0; t < due; t++) {
+				match.tick();
+			}
+			flush(match);
+			long end = System.nanoTime();
+			latency.record(end - start);
+			start = end;
+			if (match.isOver()) {
+				close(match);
+				finished++;
+			} else {
+				matches.set(kept++, match);
+			}
+		}
+		while (matches.size() > kept) {
+			matches.remove(matches.size() - 1);
+		}
+		matchCount = kept;
+		nextTick += due * tickNanos;
+	}
+
+	/*
+	 * Writes the frames of both players, waiting for the sockets to be
+	 * writable again when they are full
+	 */
+	private void flush(VersusMatch match) {
+		for (int p = 0; p < 2; p++) {
+			try {
+				if (!match.flush(p)) {
+					match.getChannel(p).keyFor(selector).interestOps(
+							SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+			} catch (IOException e) {
+				match.forfeit(p);
+			}
+		}
+	}
+
+	/*
+	 * Closes the sockets of a match; END frames not yet written are lost
+	 */
+	private void close(VersusMatch match) {
+		for (int p = 0; p < 2; p++) {
+			try {
+				match.getChannel(p).close();
+			} catch (IOException e) {
+				// closed anyway
+			}
+		}
+	}
+
+	/**
+	 * Stops playing and closes the sockets of the matches
+	 */
+	void stop() {
+		running = false;
+		Thread playing = thread;
+		if (playing != null) {
+			LockSupport.unpark(playing);
+		}
+	}
+
+	/**
+	 * Returns the number of matches played
+	 */
+	int getMatchCount() {
+		return matchCount;
+	}
+
+	/**
+	 * Returns the number of matches over
+	 */
+	long getFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns the number of ticks given up because the worker was more than
+	 * a second behind
+	 */
+	long getDroppedTicks() {
+		return droppedTicks;
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Zobrist hashing of Tetris grids: each square of the grid has a random 64 bit
+ * key, and the hash of a grid is the exclusive or of the keys of its occupied
+ * squares. Occupying or emptying a square changes the hash by its key alone,
+ * so a grid can keep its hash up to date as it changes.
+ * 
+ * Only the occupancy of the squares is hashed, not their colors.
+ * 
+ * @author MO-Productions
+ */
+public class Zobrist {
+	// KEYS[row * Grid.WIDTH + col] is the key of square (row, col)
+	private static final long[] KEYS = new long[Grid.HEIGHT * Grid.WIDTH];
+
+	// number of upcoming pieces that can be hashed along with a grid
+	public static final int MAX_PIECES = 16;
+
+	// PIECE_KEYS[i * TYPES + type]: key of a piece of that type coming i-th
+	private static final long[] PIECE_KEYS = new long[MAX_PIECES
+			* PieceGenerator.TYPES];
+
+	// the same keys in every run, so hashes can be compared between runs
+	static {
+		long state = 0x5DEECE66DL;
+		for (int i = 0; i < KEYS.length; i++) {
+			state += 0x9E3779B97F4A7C15L;
+			KEYS[i] = mix(state);
+		}
+		for (int i = 0; i < PIECE_KEYS.length; i++) {
+			state += 0x9E3779B97F4A7C15L;
+			PIECE_KEYS[i] = mix(state);
+		}
+	}
+
+	/*
+	 * The SplitMix64 mix of a state
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	// Zobrist only has static methods
+	private Zobrist() {
+	}
+
+	/**
+	 * Returns the key of the square at (row, col)
+	 * 
+	 * @param row
+	 *            the row in the grid
+	 * @param col
+	 *            the column in the grid
+	 */
+	public static long key(int row, int col) {
+		return KEYS[row * Grid.WIDTH + col];
+	}
+
+	/**
+	 * Returns the key of an upcoming piece. Mixing the keys of the pieces
+	 * still to place into the hash of a grid tells apart searches from the same
+	 * grid with different pieces.
+	 * 
+	 * @param position
+	 *            0 for the next piece, 1 for the one after it, ...
+	 * @param type
+	 *            the type of the piece
+	 * @throws IndexOutOfBoundsException
+	 *             if position >= MAX_PIECES
+	 */
+	public static long pieceKey(int position, int type) {
+		if (position >= MAX_PIECES)
+			throw new IndexOutOfBoundsException("Invalid position = "
+					+ position);
+		return PIECE_KEYS[position * PieceGenerator.TYPES + type];
+	}
+
+	/**
+	 * Returns the exclusive or of the keys of the given columns of a row
+	 * 
+	 * @param row
+	 *            the row in the grid
+	 * @param bits
+	 *            the columns, as a row bitmask
+	 */
+	public static long hashRow(int row, int bits) {
+		long hash = 0;
+		int base = row * Grid.WIDTH;
+		while (bits != 0) {
+			hash ^= KEYS[base + Integer.numberOfTrailingZeros(bits)];
+			bits &= bits - 1;
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the hash of a whole grid
+	 * 
+	 * @param rows
+	 *            the occupancy bitmask of each row, top row first
+	 */
+	public static long hash(int[] rows) {
+		long hash = 0;
+		for (int row = 0; row < Grid.HEIGHT; row++) {
+			hash ^= hashRow(row, rows[row]);
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,86 @@
+package tetris;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of a headless Game.
+ * 
+ * @author MO-Productions
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmark {
+	private long seed; // seed of the current game
+
+	private Game game;
+
+	private Game played; // a game some pieces in, for saveRestore
+
+	private GameState state; // the state saveRestore saves into
+
+	private LatencyHistogram histogram = new LatencyHistogram();
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		game = new Game(new BagGenerator(seed++));
+		played = new Game(new BagGenerator(seed));
+		for (int i = 0; i < 12; i++) {
+			played.place(i % 4, 2 * i % Grid.WIDTH);
+			played.movePiece(Direction.DOWN);
+		}
+		state = new GameState();
+	}
+
+	/**
+	 * Drops a piece, or brings in the next one when the last one has locked.
+	 * Pieces pile up in the middle, so a new game is started every few dozen
+	 * calls: its cost is part of the result.
+	 */
+	@Benchmark
+	public Game movePieceDrop() {
+		if (game.isGameOver()) {
+			game = new Game(new BagGenerator(seed++));
+		}
+		game.movePiece(Direction.DROP);
+		return game;
+	}
+
+	/**
+	 * Saves the game, drops its piece, then puts it back: a move tried and
+	 * undone, as by a computer player or an undo
+	 */
+	@Benchmark
+	public Game saveRestore() {
+		played.save(state);
+		played.movePiece(Direction.DROP);
+		played.restore(state);
+		return played;
+	}
+
+	/**
+	 * Times an empty operation into a histogram, as the game does with its
+	 * metrics on: the cost the metrics add to each timed operation
+	 */
+	@Benchmark
+	public LatencyHistogram timedRecord() {
+		long start = System.nanoTime();
+		histogram.record(System.nanoTime() - start);
+		return histogram;
+	}
+}
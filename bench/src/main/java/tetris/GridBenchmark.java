@@ -0,0 +1,122 @@
+package tetris;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the Grid: occupancy probes, row removal and drawing.
+ * 
+ * The boards are "sparse" (a few scattered squares), "dense" (the bottom 16
+ * rows full but for one hole each) and "multi" (the dense board, whose holes
+ * checkRows is made to find filled: four rows are removed each time).
+ * 
+ * @author MO-Productions
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GridBenchmark {
+	@Param({ "sparse", "dense", "multi" })
+	public String board;
+
+	private Grid grid;
+
+	private int[] holes; // column of the hole of each dense row
+
+	private BufferedImage image; // off-screen drawing target
+
+	private Graphics2D graphics;
+
+	private int probe; // the square probed next by isSet
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		grid = new Grid();
+		holes = new int[Grid.HEIGHT];
+		if (board.equals("sparse")) {
+			for (int i = 0; i < 12; i++) {
+				grid.set(Grid.HEIGHT - 1 - i % 4, (i * 7) % Grid.WIDTH,
+						Color.RED);
+			}
+		} else {
+			for (int r = 4; r < Grid.HEIGHT; r++) {
+				// the same hole every fourth row, so the board looks the same
+				// after four rows are removed
+				holes[r] = (r % 4) * 3;
+				for (int c = 0; c < Grid.WIDTH; c++) {
+					if (c != holes[r]) {
+						grid.set(r, c, Color.BLUE);
+					}
+				}
+			}
+		}
+		grid.checkRows();
+		image = new BufferedImage(400, 550, BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public boolean isSet() {
+		int p = probe = (probe + 7) % (Grid.HEIGHT * Grid.WIDTH);
+		return grid.isSet(p / Grid.WIDTH, p % Grid.WIDTH);
+	}
+
+	/**
+	 * The rows of a piece that just locked are checked. On "multi", the piece
+	 * fills the holes of the bottom four rows, which are removed, and the four
+	 * rows are put back (as emptied by the removal) for the next call.
+	 */
+	@Benchmark
+	public int checkRows() {
+		int bottom = Grid.HEIGHT - 1;
+		if (board.equals("multi")) {
+			for (int r = bottom - 3; r <= bottom; r++) {
+				grid.set(r, holes[r], Color.CYAN);
+			}
+			int cleared = grid.checkRows();
+			// the dense rows moved down by four: put the top four back
+			for (int r = 4; r < 8; r++) {
+				for (int c = 0; c < Grid.WIDTH; c++) {
+					grid.set(r, c, (c != holes[r]) ? Color.BLUE : Grid.EMPTY);
+				}
+			}
+			return cleared;
+		}
+		// a lock that fills no row: the same four rows are touched
+		for (int r = bottom - 3; r <= bottom; r++) {
+			grid.set(r, holes[r], grid.getColor(r, holes[r]));
+		}
+		return grid.checkRows();
+	}
+
+	@Benchmark
+	public void draw(Blackhole blackhole) {
+		grid.draw(graphics);
+		blackhole.consume(image);
+	}
+}
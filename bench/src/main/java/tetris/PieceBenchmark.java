@@ -0,0 +1,60 @@
+package tetris;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of rotations: one Square about a center, and a whole piece.
+ * 
+ * @author MO-Productions
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceBenchmark {
+	private Grid grid;
+
+	private Square center, square; // a square two columns left of the center
+
+	private AbstractPiece piece; // an L in the middle of the grid
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		grid = new Grid();
+		// a few squares around, none in the way
+		grid.set(12, 2, Color.RED);
+		grid.set(8, 7, Color.RED);
+		center = new Square(grid, 10, 5, Color.BLUE, true);
+		square = new Square(grid, 10, 3, Color.BLUE, true);
+		piece = new LShape(10, 5, grid);
+	}
+
+	@Benchmark
+	public boolean squareCanRotate() {
+		return square.canRotate(center);
+	}
+
+	/**
+	 * A full turn is four rotations, so the piece ends where it started
+	 */
+	@Benchmark
+	public int pieceRotate() {
+		piece.rotate();
+		return piece.getOrientation();
+	}
+}